@@ -22,7 +22,9 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.EstimatingWeigher;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
 
 /**
  * @author Clinton Begin
@@ -38,12 +40,59 @@ public @interface CacheNamespace {
 
   long flushInterval() default 0;
 
+  /**
+   * Milliseconds after which each entry expires once written. Unlike the flush interval, entries expire one by one.
+   * @since 3.4.3
+   */
+  long expireAfterWrite() default 0;
+
+  /**
+   * Milliseconds after which each entry expires once last read.
+   * @since 3.4.3
+   */
+  long expireAfterAccess() default 0;
+
+  /**
+   * Upper bound of a random time taken off the write expiry of each entry.
+   * @since 3.4.3
+   */
+  long expiryJitter() default 0;
+
+  /**
+   * Milliseconds after which an entry read is still returned but reloaded in the background.
+   * @since 3.4.3
+   */
+  long refreshAfterWrite() default 0;
+
   int size() default 1024;
 
+  /**
+   * Total weight of the entries, in bytes for the default weigher. When set, it bounds the cache instead of the size.
+   * @since 3.4.3
+   */
+  long maxWeight() default 0;
+
+  /**
+   * @since 3.4.3
+   */
+  Class<? extends org.apache.ibatis.cache.Weigher> weigher() default EstimatingWeigher.class;
+
   boolean readWrite() default true;
+
+  /**
+   * Serializer used to copy the values of a read-write cache.
+   * @since 3.4.3
+   */
+  Class<? extends org.apache.ibatis.cache.serializer.Serializer> serializer() default JavaSerializer.class;
   
   boolean blocking() default false;
 
+  /**
+   * Whether concurrent misses of the same key run a single query.
+   * @since 3.4.3
+   */
+  boolean coalescing() default false;
+
   /**
    * Property values for a implementation object.
    * @since 3.4.2
@@ -26,8 +26,11 @@ import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.Weigher;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.Serializer;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.mapping.CacheBuilder;
@@ -128,16 +131,46 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, null, null, null, null, size, null, null, readWrite, null, blocking, false, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Long expireAfterWrite,
+      Long expireAfterAccess,
+      Long expiryJitter,
+      Long refreshAfterWrite,
+      Integer size,
+      Long maxWeight,
+      Class<? extends Weigher> weigherClass,
+      boolean readWrite,
+      Class<? extends Serializer> serializerClass,
+      boolean blocking,
+      boolean coalescing,
+      Properties props) {
+    CacheStatistics statistics = new CacheStatistics(currentNamespace);
     Cache cache = new CacheBuilder(currentNamespace)
         .implementation(valueOrDefault(typeClass, PerpetualCache.class))
         .addDecorator(valueOrDefault(evictionClass, LruCache.class))
         .clearInterval(flushInterval)
+        .expireAfterWrite(expireAfterWrite)
+        .expireAfterAccess(expireAfterAccess)
+        .expiryJitter(expiryJitter)
+        .refreshAfterWrite(refreshAfterWrite)
         .size(size)
+        .maxWeight(maxWeight)
+        .weigher(weigherClass)
         .readWrite(readWrite)
+        .serializer(serializerClass)
         .blocking(blocking)
+        .coalescing(coalescing)
         .properties(props)
+        .statistics(statistics)
+        .invalidationBus(configuration.getCacheInvalidationBus())
         .build();
     configuration.addCache(cache);
+    configuration.addCacheStatistics(statistics);
     currentCache = cache;
     return cache;
   }
@@ -180,8 +180,12 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
+      Long maxWeight = cacheDomain.maxWeight() == 0 ? null : cacheDomain.maxWeight();
+      Long expireAfterWrite = cacheDomain.expireAfterWrite() == 0 ? null : cacheDomain.expireAfterWrite();
+      Long expireAfterAccess = cacheDomain.expireAfterAccess() == 0 ? null : cacheDomain.expireAfterAccess();
+      Long refreshAfterWrite = cacheDomain.refreshAfterWrite() == 0 ? null : cacheDomain.refreshAfterWrite();
       Properties props = convertToProperties(cacheDomain.properties());
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), props);
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, expireAfterWrite, expireAfterAccess, cacheDomain.expiryJitter(), refreshAfterWrite, size, maxWeight, cacheDomain.weigher(), cacheDomain.readWrite(), cacheDomain.serializer(), cacheDomain.blocking(), cacheDomain.coalescing(), props);
     }
   }
 
@@ -33,6 +33,8 @@ import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.serializer.Serializer;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.Discriminator;
@@ -203,11 +205,20 @@ public class XMLMapperBuilder extends BaseBuilder {
       String eviction = context.getStringAttribute("eviction", "LRU");
       Class<? extends Cache> evictionClass = typeAliasRegistry.resolveAlias(eviction);
       Long flushInterval = context.getLongAttribute("flushInterval");
+      Long expireAfterWrite = context.getLongAttribute("expireAfterWrite");
+      Long expireAfterAccess = context.getLongAttribute("expireAfterAccess");
+      Long expiryJitter = context.getLongAttribute("expiryJitter");
+      Long refreshAfterWrite = context.getLongAttribute("refreshAfterWrite");
       Integer size = context.getIntAttribute("size");
+      Long maxWeight = context.getLongAttribute("maxWeight");
+      Class<? extends Weigher> weigherClass = typeAliasRegistry.resolveAlias(context.getStringAttribute("weigher"));
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
+      String serializer = context.getStringAttribute("serializer");
+      Class<? extends Serializer> serializerClass = typeAliasRegistry.resolveAlias(serializer);
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      boolean coalescing = context.getBooleanAttribute("coalescing", false);
       Properties props = context.getChildrenAsProperties();
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, expireAfterWrite, expireAfterAccess, expiryJitter, refreshAfterWrite, size, maxWeight, weigherClass, readWrite, serializerClass, blocking, coalescing, props);
     }
   }
 
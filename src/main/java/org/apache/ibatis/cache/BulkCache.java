@@ -0,0 +1,46 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Optional extension of the cache SPI for caches that can read and write several entries at once,
+ * for instance with a single lock or a single round trip to a remote store.
+ *
+ * The core calls these methods through {@link BulkCaches}, which falls back to one call per entry
+ * for caches that do not implement this interface, so implementing it is never required.
+ *
+ * @since 3.4.3
+ */
+public interface BulkCache extends Cache {
+
+  /**
+   * @param keys The keys
+   * @return The objects stored in the cache, by key. Keys with no object are left out.
+   */
+  Map<Object, Object> getObjects(Collection<?> keys);
+
+  /**
+   * Same as calling {@link #putObject(Object, Object)} for each entry.
+   * Entries may have a null value, put to release the lock a blocking cache may hold on the key.
+   *
+   * @param entries The keys and the results of the selects
+   */
+  void putObjects(Map<?, ?> entries);
+
+}
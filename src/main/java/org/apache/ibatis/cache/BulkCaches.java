@@ -0,0 +1,61 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bulk operations on any cache: they are delegated to a {@link BulkCache}, and done one entry at
+ * a time on other caches.
+ *
+ * @since 3.4.3
+ */
+public final class BulkCaches {
+
+  private BulkCaches() {
+    // Prevent Instantiation
+  }
+
+  public static Map<Object, Object> getObjects(Cache cache, Collection<?> keys) {
+    if (cache instanceof BulkCache) {
+      return ((BulkCache) cache).getObjects(keys);
+    }
+    Map<Object, Object> objects = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = cache.getObject(key);
+      if (value != null) {
+        objects.put(key, value);
+      }
+    }
+    return objects;
+  }
+
+  public static void putObjects(Cache cache, Map<?, ?> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    if (cache instanceof BulkCache) {
+      ((BulkCache) cache).putObjects(entries);
+      return;
+    }
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      cache.putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
+}
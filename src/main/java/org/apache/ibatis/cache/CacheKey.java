@@ -15,43 +15,73 @@
  */
 package org.apache.ibatis.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
+ * The elements of the key are kept in an array, presized when their number is known, so building a key
+ * for a query allocates no list nor iterator. Besides the 32-bit hash code the key keeps a 64-bit,
+ * order sensitive checksum, both computed as the elements are added, so two keys that differ are told
+ * apart without walking their elements in nearly every case.
+ * <p>
+ * The serialized form is still the one of the keys that kept their elements in a list, so keys written by
+ * either version are read by the other. The hash code and checksum are computed again when a key is read.
+ *
  * @author Clinton Begin
  */
 public class CacheKey implements Cloneable, Serializable {
 
   private static final long serialVersionUID = 1146682552656046210L;
 
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("multiplier", int.class),
+      new ObjectStreamField("hashcode", int.class),
+      new ObjectStreamField("checksum", long.class),
+      new ObjectStreamField("count", int.class),
+      new ObjectStreamField("updateList", List.class) };
+
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
   private static final int DEFAULT_MULTIPLYER = 37;
   private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long CHECKSUM_MULTIPLIER = 0x9E3779B97F4A7C15L;
 
   private int multiplier;
   private int hashcode;
   private long checksum;
   private int count;
-  private List<Object> updateList;
+  private Object[] updateList;
 
   public CacheKey() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param expectedUpdates the number of elements the key is expected to hold
+   * @since 3.4.3
+   */
+  public CacheKey(int expectedUpdates) {
     this.hashcode = DEFAULT_HASHCODE;
     this.multiplier = DEFAULT_MULTIPLYER;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.updateList = new Object[Math.max(expectedUpdates, 1)];
   }
 
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
@@ -69,13 +99,16 @@ public class CacheKey implements Cloneable, Serializable {
   private void doUpdate(Object object) {
     int baseHashCode = object == null ? 1 : object.hashCode();
 
+    if (count == updateList.length) {
+      updateList = Arrays.copyOf(updateList, count + (count >> 1) + 1);
+    }
+    updateList[count] = object;
+
     count++;
-    checksum += baseHashCode;
+    checksum = checksum * CHECKSUM_MULTIPLIER + baseHashCode;
     baseHashCode *= count;
 
     hashcode = multiplier * hashcode + baseHashCode;
-
-    updateList.add(object);
   }
 
   public void updateAll(Object[] objects) {
@@ -105,17 +138,15 @@ public class CacheKey implements Cloneable, Serializable {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (thisObject == null) {
-        if (thatObject != null) {
-          return false;
-        }
-      } else {
-        if (!thisObject.equals(thatObject)) {
-          return false;
-        }
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
+      // interned elements, like the statement id and its sql, are the same instance
+      if (thisObject == thatObject) {
+        continue;
+      }
+      if (thisObject == null || !thisObject.equals(thatObject)) {
+        return false;
       }
     }
     return true;
@@ -129,17 +160,54 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public String toString() {
     StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (Object object : updateList) {
-      returnValue.append(':').append(object);
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(updateList[i]);
     }
 
     return returnValue.toString();
   }
 
+  /*
+   * Writes the fields of the list based keys, with the checksum they computed: the sum of the hash codes
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    List<Object> list = new ArrayList<Object>(count);
+    long listChecksum = 0;
+    for (int i = 0; i < count; i++) {
+      Object object = updateList[i];
+      listChecksum += object == null ? 1 : object.hashCode();
+      list.add(object);
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("multiplier", multiplier);
+    fields.put("hashcode", hashcode);
+    fields.put("checksum", listChecksum);
+    fields.put("count", count);
+    fields.put("updateList", list);
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    List<?> list = (List<?>) fields.get("updateList", null);
+    if (list == null) {
+      list = new ArrayList<Object>();
+    }
+    multiplier = fields.get("multiplier", DEFAULT_MULTIPLYER);
+    hashcode = DEFAULT_HASHCODE;
+    checksum = 0;
+    count = 0;
+    updateList = new Object[Math.max(list.size(), 1)];
+    for (Object object : list) {
+      doUpdate(object);
+    }
+  }
+
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    // room for a few more elements, a clone is usually updated further
+    clonedCacheKey.updateList = Arrays.copyOf(updateList, count + 4);
     return clonedCacheKey;
   }
 
@@ -0,0 +1,243 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+
+/**
+ * Hits, misses, puts, evictions, clears and load times of one second level cache.
+ *
+ * Counters are striped, so they cost no contention on a hot namespace. Hits, misses, puts and clears
+ * are counted by the {@code LoggingCache} decorator, evictions by the caches that evict and load
+ * times by the {@code CachingExecutor}. The statistics of each namespace are found with
+ * {@code Configuration.getCacheStatistics}, and registered with JMX when {@code cacheJmxEnabled} is set.
+ */
+public class CacheStatistics implements CacheStatisticsMXBean, EvictionListener {
+
+  private static final Log log = LogFactory.getLog(CacheStatistics.class);
+
+  private final String id;
+  private final StripedCounter hits = new StripedCounter();
+  private final StripedCounter misses = new StripedCounter();
+  private final StripedCounter puts = new StripedCounter();
+  private final StripedCounter evictions = new StripedCounter();
+  private final StripedCounter clears = new StripedCounter();
+  private final StripedCounter loads = new StripedCounter();
+  private final StripedCounter loadTime = new StripedCounter();
+  private final AtomicLong maxLoadTime = new AtomicLong();
+  private final List<CacheStatisticsListener> listeners = new CopyOnWriteArrayList<CacheStatisticsListener>();
+  private volatile Cache cache;
+  private volatile MetaObject weighedCache;
+  private ObjectName registeredName;
+
+  public CacheStatistics(String id) {
+    this.id = id;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Sets the cache whose size is reported.
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the cache whose {@code totalWeight} property is reported, if it has one.
+   */
+  public void setWeighedCache(Cache weighedCache) {
+    MetaObject metaCache = SystemMetaObject.forObject(weighedCache);
+    this.weighedCache = metaCache.hasGetter("totalWeight") ? metaCache : null;
+  }
+
+  public void addListener(CacheStatisticsListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(CacheStatisticsListener listener) {
+    listeners.remove(listener);
+  }
+
+  public void cacheHit() {
+    hits.increment();
+    for (CacheStatisticsListener listener : listeners) {
+      listener.cacheHit();
+    }
+  }
+
+  public void cacheMissed() {
+    misses.increment();
+    for (CacheStatisticsListener listener : listeners) {
+      listener.cacheMissed();
+    }
+  }
+
+  public void entryPut() {
+    puts.increment();
+    for (CacheStatisticsListener listener : listeners) {
+      listener.entryPut();
+    }
+  }
+
+  @Override
+  public void entryEvicted() {
+    evictions.increment();
+    for (CacheStatisticsListener listener : listeners) {
+      listener.entryEvicted();
+    }
+  }
+
+  public void cacheCleared() {
+    clears.increment();
+    for (CacheStatisticsListener listener : listeners) {
+      listener.cacheCleared();
+    }
+  }
+
+  public void entryLoaded(long nanos) {
+    long value = nanos < 0 ? 0 : nanos;
+    loads.increment();
+    loadTime.add(value);
+    long current;
+    while (value > (current = maxLoadTime.get())) {
+      if (maxLoadTime.compareAndSet(current, value)) {
+        break;
+      }
+    }
+    for (CacheStatisticsListener listener : listeners) {
+      listener.entryLoaded(value);
+    }
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hitCount = hits.sum();
+    long requests = hitCount + misses.sum();
+    return requests == 0 ? 0 : (double) hitCount / (double) requests;
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  @Override
+  public long getClears() {
+    return clears.sum();
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.sum();
+  }
+
+  /**
+   * Average time of the loads, in milliseconds.
+   */
+  @Override
+  public double getAverageLoadTime() {
+    long count = loads.sum();
+    return count == 0 ? 0 : loadTime.sum() / 1000000.0 / count;
+  }
+
+  /**
+   * Longest load, in milliseconds.
+   */
+  @Override
+  public double getMaxLoadTime() {
+    return maxLoadTime.get() / 1000000.0;
+  }
+
+  @Override
+  public int getSize() {
+    Cache current = cache;
+    return current == null ? 0 : current.getSize();
+  }
+
+  /**
+   * Total weight of the entries, zero unless the cache is bounded by a max weight.
+   */
+  @Override
+  public long getWeight() {
+    MetaObject current = weighedCache;
+    return current == null ? 0 : ((Number) current.getValue("totalWeight")).longValue();
+  }
+
+  public synchronized void registerMBean() {
+    if (registeredName != null) {
+      return;
+    }
+    try {
+      ObjectName objectName = new ObjectName("org.apache.ibatis.cache:type=CacheStatistics,name=" + ObjectName.quote(id));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      registeredName = objectName;
+    } catch (JMException e) {
+      log.warn("Could not register the statistics of cache " + id + " with JMX. Cause: " + e);
+    }
+  }
+
+  public synchronized void unregisterMBean() {
+    if (registeredName == null) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(registeredName)) {
+        server.unregisterMBean(registeredName);
+      }
+    } catch (JMException e) {
+      log.warn("Could not unregister " + registeredName + " from JMX. Cause: " + e);
+    }
+    registeredName = null;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStatistics[" + id + "] hits=" + getHits() + ", misses=" + getMisses() + ", puts=" + getPuts()
+        + ", evictions=" + getEvictions() + ", clears=" + getClears() + ", size=" + getSize();
+  }
+
+}
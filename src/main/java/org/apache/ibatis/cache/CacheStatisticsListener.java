@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Receives the events counted by a {@link CacheStatistics}, for example to feed an external metrics library.
+ * <p>
+ * Methods are called on the thread that used the cache, often a request thread, and must return quickly.
+ *
+ * @see CacheStatistics#addListener(CacheStatisticsListener)
+ */
+public interface CacheStatisticsListener {
+
+  /**
+   * A query was answered by the cache.
+   */
+  void cacheHit();
+
+  /**
+   * A query was not in the cache.
+   */
+  void cacheMissed();
+
+  /**
+   * A result was stored in the cache.
+   */
+  void entryPut();
+
+  /**
+   * The cache dropped an entry because it was full or the entry expired.
+   */
+  void entryEvicted();
+
+  /**
+   * The cache was emptied.
+   */
+  void cacheCleared();
+
+  /**
+   * A missed query was run against the database.
+   *
+   * @param nanos the time it took, including the wait for a concurrent session running the same query
+   */
+  void entryLoaded(long nanos);
+
+}
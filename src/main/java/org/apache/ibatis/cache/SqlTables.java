@@ -0,0 +1,237 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The tables a SQL statement reads and writes, found by a lightweight scan of its text.
+ *
+ * Table names are upper cased and stripped of their quotes and schema, so two tables with the same
+ * name in different schemas are taken as one. That may invalidate more than needed, never less.
+ * The tables behind views, triggers and stored functions are not seen.
+ */
+public final class SqlTables {
+
+  private static final Set<String> STATEMENTS = new HashSet<String>(Arrays.asList(
+      "SELECT", "WITH", "INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE", "UPSERT", "TRUNCATE", "("));
+
+  // keywords that end a from list
+  private static final Set<String> CLAUSES = new HashSet<String>(Arrays.asList(
+      "WHERE", "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "FETCH", "FOR", "UNION", "INTERSECT",
+      "EXCEPT", "MINUS", "SET", "VALUES", "SELECT", "WINDOW", "CONNECT", "START", "RETURNING", "WHEN", "WITH"));
+
+  // keywords that may stand between a keyword and the table name
+  private static final Set<String> MODIFIERS = new HashSet<String>(Arrays.asList(
+      "LATERAL", "ONLY", "IGNORE", "LOW_PRIORITY", "DELAYED", "HIGH_PRIORITY", "QUICK", "TABLE", "INTO"));
+
+  private static final int NONE = 0;
+  private static final int READ = 1;
+  private static final int WRITE = 2;
+  private static final int SKIP = 3;
+
+  private final Set<String> readTables;
+  private final Set<String> writtenTables;
+
+  private SqlTables(Set<String> readTables, Set<String> writtenTables) {
+    this.readTables = Collections.unmodifiableSet(readTables);
+    this.writtenTables = Collections.unmodifiableSet(writtenTables);
+  }
+
+  /**
+   * Tables in the from and join clauses, sorted.
+   */
+  public Set<String> getReadTables() {
+    return readTables;
+  }
+
+  /**
+   * Tables inserted, updated, merged, deleted from or truncated, sorted.
+   */
+  public Set<String> getWrittenTables() {
+    return writtenTables;
+  }
+
+  /**
+   * Returns the tables of the statement, or null if it is not a query nor a DML statement,
+   * for instance a stored procedure call.
+   */
+  public static SqlTables parse(String sql) {
+    List<Token> tokens = tokenize(sql);
+    if (tokens.isEmpty() || !tokens.get(0).isKeyword(STATEMENTS)) {
+      return null;
+    }
+    Set<String> read = new TreeSet<String>();
+    Set<String> written = new TreeSet<String>();
+    // whether a comma at each parenthesis depth starts a new table of a from list
+    boolean[] fromList = new boolean[8];
+    int depth = 0;
+    int expect = NONE;
+    boolean pendingInto = false;
+    String previous = null;
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      String text = token.text;
+      if (token.quoted) {
+        if (expect != NONE) {
+          expect = addName(tokens, i, expect, read, written);
+        }
+      } else if ("(".equals(text)) {
+        depth++;
+        if (depth == fromList.length) {
+          fromList = Arrays.copyOf(fromList, depth * 2);
+        }
+        fromList[depth] = false;
+        expect = NONE;
+      } else if (")".equals(text)) {
+        fromList[depth] = false;
+        depth = Math.max(0, depth - 1);
+        expect = NONE;
+      } else if (",".equals(text)) {
+        expect = fromList[depth] ? READ : NONE;
+      } else if ("FROM".equals(text)) {
+        if ("DELETE".equals(previous)) {
+          expect = WRITE;
+        } else {
+          expect = READ;
+          fromList[depth] = true;
+        }
+      } else if ("INTO".equals(text) && pendingInto) {
+        pendingInto = false;
+        expect = WRITE;
+      } else if (expect != NONE && MODIFIERS.contains(text)) {
+        // still expecting the table name
+      } else if ("JOIN".equals(text) || "USING".equals(text)) {
+        expect = READ;
+      } else if ("ON".equals(text)) {
+        // a join condition, the from list may go on after it
+        expect = NONE;
+      } else if ("INSERT".equals(text) || "REPLACE".equals(text) || "MERGE".equals(text) || "UPSERT".equals(text)) {
+        pendingInto = true;
+      } else if ("UPDATE".equals(text)) {
+        // not "for update" nor "on duplicate key update"
+        if (!"FOR".equals(previous) && !"KEY".equals(previous)) {
+          expect = WRITE;
+        }
+      } else if ("DELETE".equals(text) || "TRUNCATE".equals(text)) {
+        expect = WRITE;
+      } else if (CLAUSES.contains(text)) {
+        fromList[depth] = false;
+        expect = NONE;
+      } else if (expect != NONE && token.isName()) {
+        expect = addName(tokens, i, expect, read, written);
+      }
+      if (expect == SKIP) {
+        // jump over the rest of the qualified name just added
+        while (i + 2 < tokens.size() && ".".equals(tokens.get(i + 1).text) && tokens.get(i + 2).isName()) {
+          i += 2;
+        }
+        expect = NONE;
+      }
+      previous = token.quoted ? null : text;
+    }
+    return new SqlTables(read, written);
+  }
+
+  private static int addName(List<Token> tokens, int i, int expect, Set<String> read, Set<String> written) {
+    String name = tokens.get(i).text;
+    int last = i;
+    while (last + 2 < tokens.size() && ".".equals(tokens.get(last + 1).text) && tokens.get(last + 2).isName()) {
+      last += 2;
+      name = tokens.get(last).text;
+    }
+    boolean function = last + 1 < tokens.size() && "(".equals(tokens.get(last + 1).text);
+    if (expect == WRITE) {
+      written.add(name);
+    } else if (!function) {
+      read.add(name);
+    }
+    return SKIP;
+  }
+
+  private static List<Token> tokenize(String sql) {
+    List<Token> tokens = new ArrayList<Token>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '\'') {
+        // a literal, an escaped quote '' simply reads as two literals
+        int end = sql.indexOf('\'', i + 1);
+        i = end < 0 ? length : end + 1;
+        tokens.add(new Token("'", false));
+      } else if (c == '"' || c == '`' || c == '[') {
+        int end = sql.indexOf(c == '[' ? ']' : c, i + 1);
+        int stop = end < 0 ? length : end;
+        tokens.add(new Token(sql.substring(i + 1, stop).toUpperCase(Locale.ENGLISH), true));
+        i = stop + 1;
+      } else if (isWordPart(c)) {
+        int start = i;
+        while (i < length && isWordPart(sql.charAt(i))) {
+          i++;
+        }
+        tokens.add(new Token(sql.substring(start, i).toUpperCase(Locale.ENGLISH), false));
+      } else {
+        tokens.add(new Token(String.valueOf(c), false));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static boolean isWordPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@';
+  }
+
+  private static class Token {
+
+    private final String text;
+    private final boolean quoted;
+
+    Token(String text, boolean quoted) {
+      this.text = text;
+      this.quoted = quoted;
+    }
+
+    boolean isKeyword(Set<String> keywords) {
+      return !quoted && keywords.contains(text);
+    }
+
+    boolean isName() {
+      if (quoted) {
+        return !text.isEmpty();
+      }
+      char c = text.charAt(0);
+      return Character.isLetter(c) || c == '_';
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+
+/**
+ * Invalidation index of the second level caches by table.
+ *
+ * Each table has a version, incremented when a committed statement writes it. The key of a cached
+ * query also holds the versions of the tables it reads, so once one of them is written the entry is
+ * simply no longer found, in every namespace, and is eventually dropped by the eviction policy.
+ * Entries of other tables are kept.
+ *
+ * A query whose tables are unknown depends on every write. A write whose tables are unknown
+ * invalidates every entry.
+ */
+public class TableVersions {
+
+  // the SQL of dynamic statements is remembered up to a total length, and only when it is short
+  private static final int MAX_PARSED_LENGTH = 4096;
+  private static final long MAX_PARSED_CHARACTERS = 1024 * 1024;
+
+  private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+  // by statement id for the statements whose SQL does not depend on the parameter
+  private final ConcurrentHashMap<String, Object> parsedStatements = new ConcurrentHashMap<String, Object>();
+  private final ConcurrentHashMap<String, Object> parsed = new ConcurrentHashMap<String, Object>();
+  private final AtomicLong parsedCharacters = new AtomicLong();
+  // incremented by every write
+  private final AtomicLong anyTable = new AtomicLong();
+  // incremented by the writes of unknown tables
+  private final AtomicLong allTables = new AtomicLong();
+
+  /**
+   * Returns the tables of a SQL statement, or null if they are unknown.
+   */
+  public SqlTables getTables(String sql) {
+    Object tables = parsed.get(sql);
+    if (tables == null) {
+      tables = SqlTables.parse(sql);
+      int length = sql.length();
+      if (length <= MAX_PARSED_LENGTH && parsedCharacters.get() + length <= MAX_PARSED_CHARACTERS
+          && parsed.putIfAbsent(sql, tables == null ? sql : tables) == null) {
+        parsedCharacters.addAndGet(length);
+      }
+    }
+    return tables instanceof SqlTables ? (SqlTables) tables : null;
+  }
+
+  /**
+   * Returns the tables of a mapped statement run with a parameter, or null if they are unknown.
+   * The SQL of a statement that does not depend on the parameter is parsed once.
+   * @param boundSql the SQL already bound to the parameter, or null to bind it only when needed
+   */
+  public SqlTables getTables(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+    if (!isStatic(ms.getSqlSource())) {
+      return getTables(boundSql != null ? boundSql.getSql() : ms.getBoundSql(parameterObject).getSql());
+    }
+    Object tables = parsedStatements.get(ms.getId());
+    if (tables == null) {
+      String sql = boundSql != null ? boundSql.getSql() : ms.getBoundSql(parameterObject).getSql();
+      tables = SqlTables.parse(sql);
+      parsedStatements.put(ms.getId(), tables == null ? sql : tables);
+    }
+    return tables instanceof SqlTables ? (SqlTables) tables : null;
+  }
+
+  private boolean isStatic(SqlSource sqlSource) {
+    return sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource;
+  }
+
+  /**
+   * Returns a copy of the key that also holds the current versions of the tables.
+   * @param tables the tables read, null if they are unknown
+   */
+  public CacheKey versionedKey(CacheKey key, Collection<String> tables) {
+    CacheKey versionedKey;
+    try {
+      versionedKey = key.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new CacheException("Could not copy the cache key " + key + ".  Cause: " + e, e);
+    }
+    versionedKey.update(allTables.get());
+    if (tables == null || tables.isEmpty()) {
+      versionedKey.update(anyTable.get());
+    } else {
+      for (String table : tables) {
+        AtomicLong version = versions.get(table);
+        versionedKey.update(table);
+        versionedKey.update(version == null ? 0L : version.get());
+      }
+    }
+    return versionedKey;
+  }
+
+  /**
+   * Invalidates the entries that read the tables, called once the write is committed.
+   * @param tables the tables written, null if they are unknown
+   */
+  public void written(Collection<String> tables) {
+    if (tables == null || tables.isEmpty()) {
+      allTables.incrementAndGet();
+    } else {
+      for (String table : tables) {
+        AtomicLong version = versions.get(table);
+        if (version == null) {
+          AtomicLong created = new AtomicLong();
+          version = versions.putIfAbsent(table, created);
+          if (version == null) {
+            version = created;
+          }
+        }
+        version.incrementAndGet();
+      }
+    }
+    anyTable.incrementAndGet();
+  }
+
+}
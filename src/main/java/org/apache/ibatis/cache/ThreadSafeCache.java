@@ -0,0 +1,28 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Marks a cache decorator that may be called by several threads at once.
+ * 
+ * When every decorator of a namespace cache is thread safe, including the ones added for its
+ * clearInterval, expiry and readOnly settings, the cache is not wrapped
+ * in a {@link org.apache.ibatis.cache.decorators.SynchronizedCache}, so reads do not
+ * contend for a single lock.
+ */
+public interface ThreadSafeCache extends Cache {
+
+}
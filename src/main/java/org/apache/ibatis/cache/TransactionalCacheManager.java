@@ -39,6 +39,10 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public boolean isCleared(Cache cache) {
+    return getTransactionalCache(cache).isClearOnCommit();
+  }
+
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
@@ -15,12 +15,17 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
 
@@ -34,7 +39,7 @@ import org.apache.ibatis.cache.CacheException;
  * @author Eduardo Macarron
  *
  */
-public class BlockingCache implements Cache {
+public class BlockingCache implements BulkCache {
 
   private long timeout;
   private final Cache delegate;
@@ -74,6 +79,30 @@ public class BlockingCache implements Cache {
     return value;
   }
 
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    // one key at a time, waiting for several locks at once could deadlock with another caller
+    Map<Object, Object> objects = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        objects.put(key, value);
+      }
+    }
+    return objects;
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    try {
+      BulkCaches.putObjects(delegate, entries);
+    } finally {
+      for (Object key : entries.keySet()) {
+        releaseLock(key);
+      }
+    }
+  }
+
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
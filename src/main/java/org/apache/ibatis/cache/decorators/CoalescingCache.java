@@ -0,0 +1,207 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.serializer.Serializer;
+
+/**
+ * Single flight decorator.
+ *
+ * When several threads miss the same key at once, only the first one runs the loader.
+ * The others wait for it and receive the same value, so a cold key costs one query
+ * instead of one per caller. Unlike {@link BlockingCache} no lock is left behind if the
+ * loader fails or never stores its value.
+ *
+ * When a serializer is set, as for read-write caches, the loaded value is serialized before
+ * the loader's caller gets it back and each waiter receives its own deserialized copy.
+ *
+ * If the loader fails, the waiters get a {@link CacheException} with the same cause.
+ * A waiter that has waited longer than the timeout runs the loader by itself.
+ */
+public class CoalescingCache implements BulkCache {
+
+  private long timeout;
+  private boolean coalescing = true;
+  private Serializer serializer;
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Flight> flights;
+
+  public CoalescingCache(Cache delegate) {
+    this.delegate = delegate;
+    this.flights = new ConcurrentHashMap<Object, Flight>();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    return BulkCaches.getObjects(delegate, keys);
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    BulkCaches.putObjects(delegate, entries);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Runs the loader for a missed key, or waits for a concurrent caller already running it.
+   * The loaded value is not stored in the cache, that is left to the caller.
+   */
+  public Object load(Object key, Callable<?> loader) throws Exception {
+    if (!coalescing) {
+      return loader.call();
+    }
+    Flight flight = new Flight(loader, serializer);
+    Flight inFlight = flights.putIfAbsent(key, flight);
+    if (inFlight == null) {
+      try {
+        flight.run();
+        return flight.result().value;
+      } finally {
+        flights.remove(key, flight);
+      }
+    }
+    if (inFlight.owner == Thread.currentThread()) {
+      // a nested query for the same key, waiting for ourselves would never end
+      return loader.call();
+    }
+    return await(key, inFlight, loader);
+  }
+
+  private Object await(Object key, Flight inFlight, Callable<?> loader) throws Exception {
+    try {
+      Loaded loaded = timeout > 0 ? inFlight.get(timeout, TimeUnit.MILLISECONDS) : inFlight.get();
+      return loaded.bytes == null ? loaded.value : serializer.deserialize(loaded.bytes);
+    } catch (TimeoutException e) {
+      return loader.call();
+    } catch (InterruptedException e) {
+      throw new CacheException("Got interrupted while waiting for the key " + key + " at the cache " + delegate.getId(), e);
+    } catch (ExecutionException e) {
+      throw new CacheException("Error loading the key " + key + " at the cache " + delegate.getId() + ".  Cause: " + e.getCause(), e.getCause());
+    }
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+  public void setCoalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+  }
+
+  public Serializer getSerializer() {
+    return serializer;
+  }
+
+  public void setSerializer(Serializer serializer) {
+    this.serializer = serializer;
+  }
+
+  private static class Flight extends FutureTask<Loaded> {
+
+    private final Thread owner = Thread.currentThread();
+
+    Flight(final Callable<?> loader, final Serializer serializer) {
+      super(new Callable<Loaded>() {
+        @Override
+        public Loaded call() throws Exception {
+          Object value = loader.call();
+          return new Loaded(value, serializer == null || value == null ? null : serializer.serialize(value));
+        }
+      });
+    }
+
+    Loaded result() throws Exception {
+      try {
+        return get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        throw (Error) cause;
+      }
+    }
+  }
+
+  private static class Loaded {
+
+    private final Object value;
+    // taken before the loader's caller gets the value back, so the waiters' copies never see its changes
+    private final byte[] bytes;
+
+    Loaded(Object value, byte[] bytes) {
+      this.value = value;
+      this.bytes = bytes;
+    }
+  }
+
+}
@@ -0,0 +1,288 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EvictionListener;
+import org.apache.ibatis.cache.ThreadSafeCache;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.EstimatingWeigher;
+
+/**
+ * Lru (least recently used) cache decorator that can be read concurrently.
+ * 
+ * Entries are kept in a {@link ConcurrentHashMap} rather than in the decorated cache, which only
+ * provides the id. Reads do not take a lock: they record the key in a small lossy buffer, and the
+ * recency order is updated from that buffer by whichever thread next holds the eviction lock.
+ * Writes take the eviction lock, so the order may miss a few reads under heavy load but
+ * the size is always respected.
+ *
+ * When a max weight is set, the cache is bounded by the total weight of its entries
+ * as measured by the weigher, and the size is ignored. An entry heavier than the max weight
+ * is not cached at all.
+ */
+public class ConcurrentLruCache implements ThreadSafeCache, BulkCache {
+
+  private static final Object NULL_VALUE = new Object();
+  private static final int READ_BUFFER_SIZE = 128;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Object> entries = new ConcurrentHashMap<Object, Object>();
+  private final Map<Object, Object> accessOrder = new LinkedHashMap<Object, Object>(16, .75F, true);
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final AtomicReferenceArray<Object> readBuffer = new AtomicReferenceArray<Object>(READ_BUFFER_SIZE);
+  private final AtomicInteger readCount = new AtomicInteger();
+  private volatile int size;
+  private volatile long maxWeight;
+  private volatile Weigher weigher = new EstimatingWeigher();
+  private final Map<Object, Long> weights = new HashMap<Object, Long>();
+  private long totalWeight;
+  private volatile EvictionListener evictionListener;
+
+  public ConcurrentLruCache(Cache delegate) {
+    this.delegate = delegate;
+    this.size = 1024;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return entries.size();
+  }
+
+  public void setSize(int size) {
+    evictionLock.lock();
+    try {
+      this.size = size;
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    evictionLock.lock();
+    try {
+      this.maxWeight = maxWeight;
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  public Weigher getWeigher() {
+    return weigher;
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  public long getTotalWeight() {
+    evictionLock.lock();
+    try {
+      return totalWeight;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  public EvictionListener getEvictionListener() {
+    return evictionListener;
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    long weight = maxWeight > 0 ? weigher.weigh(key, value) : 0;
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      add(key, value, weight);
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    long[] entryWeights = new long[entries.size()];
+    if (maxWeight > 0) {
+      int i = 0;
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        entryWeights[i++] = weigher.weigh(entry.getKey(), entry.getValue());
+      }
+    }
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      int i = 0;
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        add(entry.getKey(), entry.getValue(), entryWeights[i++]);
+      }
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = entries.get(key);
+    if (value == null) {
+      return null;
+    }
+    recordRead(key);
+    return value == NULL_VALUE ? null : value;
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        objects.put(key, value);
+      }
+    }
+    return objects;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    evictionLock.lock();
+    try {
+      accessOrder.remove(key);
+      releaseWeight(key);
+      Object value = entries.remove(key);
+      return value == NULL_VALUE ? null : value;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      entries.clear();
+      accessOrder.clear();
+      weights.clear();
+      totalWeight = 0;
+      for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+        readBuffer.set(i, null);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void add(Object key, Object value, long weight) {
+    if (maxWeight > 0 && weight > maxWeight) {
+      accessOrder.remove(key);
+      releaseWeight(key);
+      entries.remove(key);
+      return;
+    }
+    entries.put(key, value == null ? NULL_VALUE : value);
+    accessOrder.put(key, key);
+    releaseWeight(key);
+    if (weight > 0) {
+      weights.put(key, weight);
+      totalWeight += weight;
+    }
+  }
+
+  private void recordRead(Object key) {
+    int index = readCount.getAndIncrement() & READ_BUFFER_MASK;
+    readBuffer.lazySet(index, key);
+    if (index == READ_BUFFER_MASK && evictionLock.tryLock()) {
+      try {
+        drainReadBuffer();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private void drainReadBuffer() {
+    for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+      Object key = readBuffer.getAndSet(i, null);
+      if (key != null) {
+        accessOrder.get(key); //touch
+      }
+    }
+  }
+
+  private void evict() {
+    Iterator<Object> eldest = accessOrder.keySet().iterator();
+    while (isOverBudget() && eldest.hasNext()) {
+      Object key = eldest.next();
+      eldest.remove();
+      entries.remove(key);
+      releaseWeight(key);
+      notifyEviction();
+    }
+  }
+
+  private void notifyEviction() {
+    if (evictionListener != null) {
+      evictionListener.entryEvicted();
+    }
+  }
+
+  private boolean isOverBudget() {
+    return maxWeight > 0 ? totalWeight > maxWeight : accessOrder.size() > size;
+  }
+
+  private void releaseWeight(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+  }
+
+}
@@ -0,0 +1,305 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EvictionListener;
+
+/**
+ * Per entry expiry decorator.
+ *
+ * Unlike {@link ScheduledCache}, which clears the whole namespace at once, each entry expires on its own,
+ * a given time after it was written and/or after it was last read. A random jitter can be taken off the
+ * write expiry so that entries written together are not all reloaded together.
+ *
+ * An expired entry is never returned. Expired entries that are not read again are removed as time goes by:
+ * entries are scheduled in buckets of a few milliseconds to a second, and only the buckets that are due
+ * are visited, on the next put or read. Entries read since they were scheduled are moved to a later bucket
+ * when their bucket comes up, so reads do not touch the schedule.
+ */
+public class ExpiringCache implements BulkCache {
+
+  private static final long NEVER = Long.MAX_VALUE;
+  private static final long MAX_TICK = 1000;
+
+  private final Cache delegate;
+  private long expireAfterWrite;
+  private long expireAfterAccess;
+  private long jitter;
+  private volatile EvictionListener evictionListener;
+
+  private final ConcurrentMap<Object, Expiry> expiries = new ConcurrentHashMap<Object, Expiry>();
+  private final TreeMap<Long, List<Object>> buckets = new TreeMap<Long, List<Object>>();
+  private final ReentrantLock scheduleLock = new ReentrantLock();
+  private final Random random = new Random();
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public long getExpireAfterWrite() {
+    return expireAfterWrite;
+  }
+
+  public void setExpireAfterWrite(long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  public long getExpireAfterAccess() {
+    return expireAfterAccess;
+  }
+
+  public void setExpireAfterAccess(long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+  }
+
+  public long getJitter() {
+    return jitter;
+  }
+
+  public void setJitter(long jitter) {
+    this.jitter = jitter;
+  }
+
+  public EvictionListener getEvictionListener() {
+    return evictionListener;
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    long now = System.currentTimeMillis();
+    Expiry expiry = written(key, now);
+    scheduleLock.lock();
+    try {
+      schedule(key, expiry);
+      expire(now);
+    } finally {
+      scheduleLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    BulkCaches.putObjects(delegate, entries);
+    long now = System.currentTimeMillis();
+    Map<Object, Expiry> toSchedule = new LinkedHashMap<Object, Expiry>();
+    for (Object key : entries.keySet()) {
+      toSchedule.put(key, written(key, now));
+    }
+    scheduleLock.lock();
+    try {
+      for (Map.Entry<Object, Expiry> entry : toSchedule.entrySet()) {
+        schedule(entry.getKey(), entry.getValue());
+      }
+      expire(now);
+    } finally {
+      scheduleLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    long now = System.currentTimeMillis();
+    expireIfIdle(now);
+    return isLive(key, now) ? delegate.getObject(key) : null;
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    long now = System.currentTimeMillis();
+    expireIfIdle(now);
+    List<Object> live = new ArrayList<Object>(keys.size());
+    for (Object key : keys) {
+      if (isLive(key, now)) {
+        live.add(key);
+      }
+    }
+    return BulkCaches.getObjects(delegate, live);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    expiries.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    scheduleLock.lock();
+    try {
+      expiries.clear();
+      buckets.clear();
+      delegate.clear();
+    } finally {
+      scheduleLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private Expiry written(Object key, long now) {
+    long writeDeadline = expireAfterWrite > 0 ? now + expireAfterWrite - nextJitter() : NEVER;
+    Expiry expiry = new Expiry(writeDeadline);
+    expiry.touch(now, expireAfterAccess);
+    expiries.put(key, expiry);
+    return expiry;
+  }
+
+  private boolean isLive(Object key, long now) {
+    Expiry expiry = expiries.get(key);
+    if (expiry != null) {
+      if (expiry.isExpired(now)) {
+        remove(key, expiry);
+        return false;
+      }
+      expiry.touch(now, expireAfterAccess);
+    }
+    return true;
+  }
+
+  private long nextJitter() {
+    if (jitter <= 0) {
+      return 0;
+    }
+    synchronized (random) {
+      return (long) (random.nextDouble() * jitter);
+    }
+  }
+
+  private long tick() {
+    long shortest = Math.min(expireAfterWrite > 0 ? expireAfterWrite : NEVER, expireAfterAccess > 0 ? expireAfterAccess : NEVER);
+    return Math.max(1, Math.min(MAX_TICK, shortest / 8));
+  }
+
+  private void expireIfIdle(long now) {
+    if (scheduleLock.tryLock()) {
+      try {
+        expire(now);
+      } finally {
+        scheduleLock.unlock();
+      }
+    }
+  }
+
+  private void schedule(Object key, Expiry expiry) {
+    long deadline = expiry.deadline();
+    if (deadline == NEVER) {
+      return;
+    }
+    long bucket = deadline / tick() + 1;
+    expiry.bucket = bucket;
+    List<Object> keys = buckets.get(bucket);
+    if (keys == null) {
+      keys = new ArrayList<Object>();
+      buckets.put(bucket, keys);
+    }
+    keys.add(key);
+  }
+
+  private void expire(long now) {
+    long currentBucket = now / tick();
+    while (!buckets.isEmpty() && buckets.firstKey() <= currentBucket) {
+      Map.Entry<Long, List<Object>> due = buckets.pollFirstEntry();
+      for (Object key : due.getValue()) {
+        Expiry expiry = expiries.get(key);
+        if (expiry == null || expiry.bucket != due.getKey()) {
+          // removed, or written again and scheduled in another bucket
+          continue;
+        }
+        if (expiry.isExpired(now)) {
+          remove(key, expiry);
+        } else {
+          schedule(key, expiry);
+        }
+      }
+    }
+  }
+
+  private void remove(Object key, Expiry expiry) {
+    // the decorated cache may have evicted the entry already, it was counted then
+    if (expiries.remove(key, expiry) && delegate.removeObject(key) != null && evictionListener != null) {
+      evictionListener.entryEvicted();
+    }
+  }
+
+  private static class Expiry {
+
+    private final long writeDeadline;
+    private volatile long accessDeadline = NEVER;
+    private long bucket;
+
+    Expiry(long writeDeadline) {
+      this.writeDeadline = writeDeadline;
+    }
+
+    void touch(long now, long expireAfterAccess) {
+      if (expireAfterAccess > 0) {
+        accessDeadline = now + expireAfterAccess;
+      }
+    }
+
+    long deadline() {
+      return Math.min(writeDeadline, accessDeadline);
+    }
+
+    boolean isExpired(long now) {
+      return now >= deadline();
+    }
+  }
+
+}
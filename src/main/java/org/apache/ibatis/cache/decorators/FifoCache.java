@@ -15,22 +15,39 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EvictionListener;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.EstimatingWeigher;
 
 /**
  * FIFO (first in, first out) cache decorator
  *
+ * When a max weight is set, the cache is bounded by the total weight of its entries
+ * as measured by the weigher, and the size is ignored. An entry heavier than the max weight
+ * is not cached at all.
+ *
  * @author Clinton Begin
  */
-public class FifoCache implements Cache {
+public class FifoCache implements BulkCache {
 
   private final Cache delegate;
   private Deque<Object> keyList;
   private int size;
+  private long maxWeight;
+  private Weigher weigher = new EstimatingWeigher();
+  private final Map<Object, Long> weights = new HashMap<Object, Long>();
+  private long totalWeight;
+  private EvictionListener evictionListener;
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
@@ -52,10 +69,44 @@ public class FifoCache implements Cache {
     this.size = size;
   }
 
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  public Weigher getWeigher() {
+    return weigher;
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  public long getTotalWeight() {
+    return totalWeight;
+  }
+
+  public EvictionListener getEvictionListener() {
+    return evictionListener;
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
-    cycleKeyList(key);
-    delegate.putObject(key, value);
+    if (maxWeight > 0) {
+      if (cycleKeyList(key, weigher.weigh(key, value))) {
+        delegate.putObject(key, value);
+      }
+    } else {
+      cycleKeyList(key);
+      delegate.putObject(key, value);
+    }
   }
 
   @Override
@@ -63,8 +114,46 @@ public class FifoCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    if (maxWeight <= 0 && entries.size() >= size) {
+      // the batch could evict its own keys, which are not tracked by key
+      for (Map.Entry<?, ?> entry : entries.entrySet()) {
+        putObject(entry.getKey(), entry.getValue());
+      }
+      return;
+    }
+    // keys are cycled first so that those evicted by the batch itself are not put
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      if (maxWeight > 0) {
+        cycleKeyList(entry.getKey(), weigher.weigh(entry.getKey(), entry.getValue()));
+      } else {
+        cycleKeyList(entry.getKey());
+      }
+    }
+    if (maxWeight <= 0) {
+      BulkCaches.putObjects(delegate, entries);
+      return;
+    }
+    Map<Object, Object> kept = new HashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      if (weights.containsKey(entry.getKey())) {
+        kept.put(entry.getKey(), entry.getValue());
+      }
+    }
+    BulkCaches.putObjects(delegate, kept);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    return BulkCaches.getObjects(delegate, keys);
+  }
+
   @Override
   public Object removeObject(Object key) {
+    if (maxWeight > 0 && releaseWeight(key)) {
+      keyList.remove(key);
+    }
     return delegate.removeObject(key);
   }
 
@@ -72,6 +161,8 @@ public class FifoCache implements Cache {
   public void clear() {
     delegate.clear();
     keyList.clear();
+    weights.clear();
+    totalWeight = 0;
   }
 
   @Override
@@ -84,7 +175,45 @@ public class FifoCache implements Cache {
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
       delegate.removeObject(oldestKey);
+      notifyEviction();
+    }
+  }
+
+  private boolean cycleKeyList(Object key, long weight) {
+    if (weight > maxWeight) {
+      // making room for it would empty the cache and it would still not fit
+      removeObject(key);
+      return false;
+    }
+    Long previous = weights.put(key, weight);
+    if (previous == null) {
+      keyList.addLast(key);
+    } else {
+      totalWeight -= previous;
+    }
+    totalWeight += weight;
+    while (totalWeight > maxWeight && !keyList.isEmpty()) {
+      Object oldestKey = keyList.removeFirst();
+      releaseWeight(oldestKey);
+      delegate.removeObject(oldestKey);
+      notifyEviction();
+    }
+    return true;
+  }
+
+  private void notifyEviction() {
+    if (evictionListener != null) {
+      evictionListener.entryEvicted();
+    }
+  }
+
+  private boolean releaseWeight(Object key) {
+    Long weight = weights.remove(key);
+    if (weight == null) {
+      return false;
     }
+    totalWeight -= weight;
+    return true;
   }
 
 }
@@ -15,27 +15,44 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.ThreadSafeCache;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
 /**
+ * Counts the hits, misses, puts and clears of a cache in its {@link CacheStatistics}
+ * and logs the hit ratio at debug level.
+ *
  * @author Clinton Begin
  */
-public class LoggingCache implements Cache {
+public class LoggingCache implements BulkCache, ThreadSafeCache {
 
   private Log log;  
   private Cache delegate;
-  protected int requests = 0;
-  protected int hits = 0;
+  private final CacheStatistics statistics;
 
   public LoggingCache(Cache delegate) {
+    this(delegate, new CacheStatistics(delegate.getId()));
+  }
+
+  public LoggingCache(Cache delegate, CacheStatistics statistics) {
     this.delegate = delegate;
+    this.statistics = statistics;
     this.log = LogFactory.getLog(getId());
   }
 
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -49,21 +66,47 @@ public class LoggingCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     delegate.putObject(key, object);
+    statistics.entryPut();
   }
 
   @Override
   public Object getObject(Object key) {
-    requests++;
     final Object value = delegate.getObject(key);
     if (value != null) {
-      hits++;
+      statistics.cacheHit();
+    } else {
+      statistics.cacheMissed();
     }
     if (log.isDebugEnabled()) {
-      log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
+      log.debug("Cache Hit Ratio [" + getId() + "]: " + statistics.getHitRatio());
     }
     return value;
   }
 
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    final Map<Object, Object> values = BulkCaches.getObjects(delegate, keys);
+    for (Object key : keys) {
+      if (values.containsKey(key)) {
+        statistics.cacheHit();
+      } else {
+        statistics.cacheMissed();
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Cache Hit Ratio [" + getId() + "]: " + statistics.getHitRatio());
+    }
+    return values;
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    BulkCaches.putObjects(delegate, entries);
+    for (int i = 0; i < entries.size(); i++) {
+      statistics.entryPut();
+    }
+  }
+
   @Override
   public Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -72,6 +115,7 @@ public class LoggingCache implements Cache {
   @Override
   public void clear() {
     delegate.clear();
+    statistics.cacheCleared();
   }
 
   @Override
@@ -89,8 +133,4 @@ public class LoggingCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private double getHitRatio() {
-    return (double) hits / (double) requests;
-  }
-
 }
@@ -15,22 +15,39 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.EvictionListener;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.EstimatingWeigher;
 
 /**
  * Lru (least recently used) cache decorator
  *
+ * When a max weight is set, the cache is bounded by the total weight of its entries
+ * as measured by the weigher, and the size is ignored. An entry heavier than the max weight
+ * is not cached at all.
+ *
  * @author Clinton Begin
  */
-public class LruCache implements Cache {
+public class LruCache implements BulkCache {
 
   private final Cache delegate;
   private Map<Object, Object> keyMap;
   private Object eldestKey;
+  private long maxWeight;
+  private Weigher weigher = new EstimatingWeigher();
+  private final Map<Object, Long> weights = new HashMap<Object, Long>();
+  private long totalWeight;
+  private EvictionListener evictionListener;
 
   public LruCache(Cache delegate) {
     this.delegate = delegate;
@@ -53,7 +70,7 @@ public class LruCache implements Cache {
 
       @Override
       protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
-        boolean tooBig = size() > size;
+        boolean tooBig = maxWeight <= 0 && size() > size;
         if (tooBig) {
           eldestKey = eldest.getKey();
         }
@@ -62,10 +79,44 @@ public class LruCache implements Cache {
     };
   }
 
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  public Weigher getWeigher() {
+    return weigher;
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  public long getTotalWeight() {
+    return totalWeight;
+  }
+
+  public EvictionListener getEvictionListener() {
+    return evictionListener;
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
-    delegate.putObject(key, value);
-    cycleKeyList(key);
+    if (maxWeight > 0) {
+      if (cycleKeyList(key, weigher.weigh(key, value))) {
+        delegate.putObject(key, value);
+      }
+    } else {
+      delegate.putObject(key, value);
+      cycleKeyList(key);
+    }
   }
 
   @Override
@@ -74,8 +125,37 @@ public class LruCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    // keys are cycled first so that those evicted by the batch itself are not put
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      if (maxWeight > 0) {
+        cycleKeyList(entry.getKey(), weigher.weigh(entry.getKey(), entry.getValue()));
+      } else {
+        cycleKeyList(entry.getKey());
+      }
+    }
+    Map<Object, Object> kept = new HashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      if (keyMap.containsKey(entry.getKey())) {
+        kept.put(entry.getKey(), entry.getValue());
+      }
+    }
+    BulkCaches.putObjects(delegate, kept);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    for (Object key : keys) {
+      keyMap.get(key); //touch
+    }
+    return BulkCaches.getObjects(delegate, keys);
+  }
+
   @Override
   public Object removeObject(Object key) {
+    keyMap.remove(key);
+    releaseWeight(key);
     return delegate.removeObject(key);
   }
 
@@ -83,6 +163,8 @@ public class LruCache implements Cache {
   public void clear() {
     delegate.clear();
     keyMap.clear();
+    weights.clear();
+    totalWeight = 0;
   }
 
   @Override
@@ -95,6 +177,41 @@ public class LruCache implements Cache {
     if (eldestKey != null) {
       delegate.removeObject(eldestKey);
       eldestKey = null;
+      notifyEviction();
+    }
+  }
+
+  private boolean cycleKeyList(Object key, long weight) {
+    if (weight > maxWeight) {
+      // it would not fit even in an empty cache, so it is not kept rather than evicting everything else
+      removeObject(key);
+      return false;
+    }
+    keyMap.put(key, key);
+    releaseWeight(key);
+    weights.put(key, weight);
+    totalWeight += weight;
+    Iterator<Object> eldest = keyMap.keySet().iterator();
+    while (totalWeight > maxWeight && eldest.hasNext()) {
+      Object eldestKey = eldest.next();
+      eldest.remove();
+      releaseWeight(eldestKey);
+      delegate.removeObject(eldestKey);
+      notifyEviction();
+    }
+    return true;
+  }
+
+  private void notifyEviction() {
+    if (evictionListener != null) {
+      evictionListener.entryEvicted();
+    }
+  }
+
+  private void releaseWeight(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
     }
   }
 
@@ -0,0 +1,256 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Refresh ahead (stale while revalidate) decorator.
+ *
+ * An entry read more than {@code refreshAfterWrite} milliseconds after it was written is still
+ * returned, but a background thread reloads it with the loader registered for its key and replaces it.
+ * Readers never wait for the refresh. Entries are removed only by the decorated caches, so a hard
+ * limit on their age is set with an {@link ExpiringCache} underneath.
+ *
+ * Misses are coalesced like in {@link CoalescingCache} when coalescing is on. Loaders are kept for at most
+ * {@code refreshCapacity} keys. When they are all kept, the loader of a key not read for a whole period
+ * makes room for a new one; otherwise the new key is not refreshed and simply ages until it is evicted.
+ * Callers check {@link #canRegister(Object)} before building a loader. A refresh that started before a
+ * clear is discarded.
+ */
+public class RefreshAheadCache extends CoalescingCache {
+
+  private static final Log log = LogFactory.getLog(RefreshAheadCache.class);
+
+  private long refreshAfterWrite;
+  private int refreshThreads = 2;
+  private int refreshCapacity = 1024;
+  private final ConcurrentMap<Object, Refresh> refreshes;
+  private final Object clearLock = new Object();
+  private long generation;
+  private ThreadPoolExecutor refresher;
+
+  public RefreshAheadCache(Cache delegate) {
+    super(delegate);
+    this.refreshes = new ConcurrentHashMap<Object, Refresh>();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    super.putObject(key, value);
+    written(key, System.currentTimeMillis());
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    super.putObjects(entries);
+    long now = System.currentTimeMillis();
+    for (Object key : entries.keySet()) {
+      written(key, now);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = super.getObject(key);
+    read(key, value, System.currentTimeMillis());
+    return value;
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> values = super.getObjects(keys);
+    long now = System.currentTimeMillis();
+    for (Object key : keys) {
+      read(key, values.get(key), now);
+    }
+    return values;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    refreshes.remove(key);
+    return super.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    synchronized (clearLock) {
+      generation++;
+      refreshes.clear();
+      super.clear();
+    }
+  }
+
+  /**
+   * Whether a loader registered for the key would be kept, making room for it if needed.
+   */
+  public boolean canRegister(Object key) {
+    return refreshAfterWrite > 0
+        && (refreshes.size() < refreshCapacity || refreshes.containsKey(key) || removeIdleRefresh());
+  }
+
+  /**
+   * Registers how to reload a key, before its first value is put.
+   */
+  public void register(Object key, Callable<?> loader) {
+    if (canRegister(key)) {
+      refreshes.put(key, new Refresh(loader));
+    }
+  }
+
+  public long getRefreshAfterWrite() {
+    return refreshAfterWrite;
+  }
+
+  public void setRefreshAfterWrite(long refreshAfterWrite) {
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  public int getRefreshThreads() {
+    return refreshThreads;
+  }
+
+  public void setRefreshThreads(int refreshThreads) {
+    this.refreshThreads = refreshThreads;
+  }
+
+  public int getRefreshCapacity() {
+    return refreshCapacity;
+  }
+
+  public void setRefreshCapacity(int refreshCapacity) {
+    this.refreshCapacity = refreshCapacity;
+  }
+
+  private void written(Object key, long now) {
+    Refresh refresh = refreshes.get(key);
+    if (refresh != null) {
+      refresh.refreshAt = now + refreshAfterWrite;
+    }
+  }
+
+  private void read(Object key, Object value, long now) {
+    Refresh refresh = refreshes.get(key);
+    if (refresh != null && refresh.refreshAt != Long.MAX_VALUE) {
+      if (value == null) {
+        // evicted or expired underneath
+        refreshes.remove(key, refresh);
+      } else if (now >= refresh.refreshAt) {
+        scheduleRefresh(key, refresh);
+      }
+    }
+  }
+
+  // the key due for the longest time, if it has not been read for a whole period since it was due
+  private boolean removeIdleRefresh() {
+    long idleBefore = System.currentTimeMillis() - refreshAfterWrite;
+    Map.Entry<Object, Refresh> idlest = null;
+    for (Map.Entry<Object, Refresh> entry : refreshes.entrySet()) {
+      if (entry.getValue().refreshAt < idleBefore
+          && (idlest == null || entry.getValue().refreshAt < idlest.getValue().refreshAt)) {
+        idlest = entry;
+      }
+    }
+    return idlest != null && refreshes.remove(idlest.getKey(), idlest.getValue());
+  }
+
+  private void scheduleRefresh(final Object key, final Refresh refresh) {
+    if (!refresh.running.compareAndSet(false, true)) {
+      return;
+    }
+    final long startGeneration;
+    synchronized (clearLock) {
+      startGeneration = generation;
+    }
+    try {
+      refresher().execute(new Runnable() {
+        @Override
+        public void run() {
+          refresh(key, refresh, startGeneration);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      refresh.running.set(false);
+    }
+  }
+
+  private void refresh(Object key, Refresh refresh, long startGeneration) {
+    try {
+      Object value = refresh.loader.call();
+      synchronized (clearLock) {
+        if (generation == startGeneration && refreshes.get(key) == refresh) {
+          putObject(key, value);
+        }
+      }
+    } catch (Exception e) {
+      // keep serving the current value, try again one period later
+      refresh.refreshAt = System.currentTimeMillis() + refreshAfterWrite;
+      log.warn("Error refreshing the key " + key + " at the cache " + getId() + ".  Cause: " + e);
+    } finally {
+      refresh.running.set(false);
+    }
+  }
+
+  private synchronized ThreadPoolExecutor refresher() {
+    if (refresher == null) {
+      final String prefix = "mybatis-cache-refresh-" + getId() + "-";
+      int threads = Math.max(1, refreshThreads);
+      refresher = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      // idle threads end, so an unused cache holds no thread
+      refresher.allowCoreThreadTimeOut(true);
+    }
+    return refresher;
+  }
+
+  private static class Refresh {
+
+    private final Callable<?> loader;
+    private final AtomicBoolean running = new AtomicBoolean();
+    // not written yet
+    private volatile long refreshAt = Long.MAX_VALUE;
+
+    Refresh(Callable<?> loader) {
+      this.loader = loader;
+    }
+  }
+
+}
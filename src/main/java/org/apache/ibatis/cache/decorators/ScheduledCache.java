@@ -15,14 +15,19 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
 
 /**
  * @author Clinton Begin
  */
-public class ScheduledCache implements Cache {
+public class ScheduledCache implements BulkCache {
 
   private Cache delegate;
   protected long clearInterval;
@@ -60,6 +65,17 @@ public class ScheduledCache implements Cache {
     return clearWhenStale() ? null : delegate.getObject(key);
   }
 
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    return clearWhenStale() ? new HashMap<Object, Object>() : BulkCaches.getObjects(delegate, keys);
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    clearWhenStale();
+    BulkCaches.putObjects(delegate, entries);
+  }
+
   @Override
   public Object removeObject(Object key) {
     clearWhenStale();
@@ -17,10 +17,16 @@ package org.apache.ibatis.cache.decorators;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.Collection;
 import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
 
 /**
@@ -29,7 +35,7 @@ import org.apache.ibatis.cache.Cache;
  *
  * @author Clinton Begin
  */
-public class SoftCache implements Cache {
+public class SoftCache implements BulkCache {
   private final Deque<Object> hardLinksToAvoidGarbageCollection;
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
@@ -66,24 +72,33 @@ public class SoftCache implements Cache {
 
   @Override
   public Object getObject(Object key) {
-    Object result = null;
-    @SuppressWarnings("unchecked") // assumed delegate cache is totally managed by this cache
-    SoftReference<Object> softReference = (SoftReference<Object>) delegate.getObject(key);
-    if (softReference != null) {
-      result = softReference.get();
+    return dereference(key, delegate.getObject(key));
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    removeGarbageCollectedItems();
+    Map<Object, Object> references = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      references.put(entry.getKey(), new SoftEntry(entry.getKey(), entry.getValue(), queueOfGarbageCollectedEntries));
+    }
+    BulkCaches.putObjects(delegate, references);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = BulkCaches.getObjects(delegate, keys);
+    Iterator<Map.Entry<Object, Object>> entries = objects.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Object, Object> entry = entries.next();
+      Object result = dereference(entry.getKey(), entry.getValue());
       if (result == null) {
-        delegate.removeObject(key);
+        entries.remove();
       } else {
-        // See #586 (and #335) modifications need more than a read lock 
-        synchronized (hardLinksToAvoidGarbageCollection) {
-          hardLinksToAvoidGarbageCollection.addFirst(result);
-          if (hardLinksToAvoidGarbageCollection.size() > numberOfHardLinks) {
-            hardLinksToAvoidGarbageCollection.removeLast();
-          }
-        }
+        entry.setValue(result);
       }
     }
-    return result;
+    return objects;
   }
 
   @Override
@@ -106,6 +121,27 @@ public class SoftCache implements Cache {
     return null;
   }
 
+  private Object dereference(Object key, Object reference) {
+    Object result = null;
+    @SuppressWarnings("unchecked") // assumed delegate cache is totally managed by this cache
+    SoftReference<Object> softReference = (SoftReference<Object>) reference;
+    if (softReference != null) {
+      result = softReference.get();
+      if (result == null) {
+        delegate.removeObject(key);
+      } else {
+        // See #586 (and #335) modifications need more than a read lock 
+        synchronized (hardLinksToAvoidGarbageCollection) {
+          hardLinksToAvoidGarbageCollection.addFirst(result);
+          if (hardLinksToAvoidGarbageCollection.size() > numberOfHardLinks) {
+            hardLinksToAvoidGarbageCollection.removeLast();
+          }
+        }
+      }
+    }
+    return result;
+  }
+
   private void removeGarbageCollectedItems() {
     SoftEntry sv;
     while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
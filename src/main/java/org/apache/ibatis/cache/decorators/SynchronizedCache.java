@@ -15,14 +15,18 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
 
 /**
  * @author Clinton Begin
  */
-public class SynchronizedCache implements Cache {
+public class SynchronizedCache implements BulkCache {
 
   private Cache delegate;
   
@@ -50,6 +54,16 @@ public class SynchronizedCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public synchronized Map<Object, Object> getObjects(Collection<?> keys) {
+    return BulkCaches.getObjects(delegate, keys);
+  }
+
+  @Override
+  public synchronized void putObjects(Map<?, ?> entries) {
+    BulkCaches.putObjects(delegate, entries);
+  }
+
   @Override
   public synchronized Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -15,12 +15,15 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
@@ -32,11 +35,12 @@ import org.apache.ibatis.logging.LogFactory;
  * Entries are sent to the cache when commit is called or discarded if the Session is rolled back. 
  * Blocking cache support has been added. Therefore any get() that returns a cache miss 
  * will be followed by a put() so any lock associated with the key can be released. 
+ * On commit, all the entries are sent to the cache with a single bulk put.
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  */
-public class TransactionalCache implements Cache {
+public class TransactionalCache implements BulkCache {
 
   private static final Log log = LogFactory.getLog(TransactionalCache.class);
 
@@ -77,6 +81,20 @@ public class TransactionalCache implements Cache {
     }
   }
 
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = BulkCaches.getObjects(delegate, keys);
+    for (Object key : keys) {
+      if (!objects.containsKey(key)) {
+        entriesMissedInCache.add(key);
+      }
+    }
+    if (clearOnCommit) {
+      objects.clear();
+    }
+    return objects;
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -87,6 +105,11 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.put(key, object);
   }
 
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    entriesToAddOnCommit.putAll(entries);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return null;
@@ -98,6 +121,10 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.clear();
   }
 
+  public boolean isClearOnCommit() {
+    return clearOnCommit;
+  }
+
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
@@ -118,14 +145,12 @@ public class TransactionalCache implements Cache {
   }
 
   private void flushPendingEntries() {
-    for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
-    }
     for (Object entry : entriesMissedInCache) {
       if (!entriesToAddOnCommit.containsKey(entry)) {
-        delegate.putObject(entry, null);
+        entriesToAddOnCommit.put(entry, null);
       }
     }
+    BulkCaches.putObjects(delegate, entriesToAddOnCommit);
   }
 
   private void unlockMissedEntries() {
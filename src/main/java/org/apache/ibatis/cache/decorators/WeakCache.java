@@ -17,10 +17,16 @@ package org.apache.ibatis.cache.decorators;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.Collection;
 import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.BulkCaches;
 import org.apache.ibatis.cache.Cache;
 
 /**
@@ -29,7 +35,7 @@ import org.apache.ibatis.cache.Cache;
  * 
  * @author Clinton Begin
  */
-public class WeakCache implements Cache {
+public class WeakCache implements BulkCache {
   private final Deque<Object> hardLinksToAvoidGarbageCollection;
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
@@ -65,21 +71,33 @@ public class WeakCache implements Cache {
 
   @Override
   public Object getObject(Object key) {
-    Object result = null;
-    @SuppressWarnings("unchecked") // assumed delegate cache is totally managed by this cache
-    WeakReference<Object> weakReference = (WeakReference<Object>) delegate.getObject(key);
-    if (weakReference != null) {
-      result = weakReference.get();
+    return dereference(key, delegate.getObject(key));
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    removeGarbageCollectedItems();
+    Map<Object, Object> references = new LinkedHashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      references.put(entry.getKey(), new WeakEntry(entry.getKey(), entry.getValue(), queueOfGarbageCollectedEntries));
+    }
+    BulkCaches.putObjects(delegate, references);
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = BulkCaches.getObjects(delegate, keys);
+    Iterator<Map.Entry<Object, Object>> entries = objects.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Object, Object> entry = entries.next();
+      Object result = dereference(entry.getKey(), entry.getValue());
       if (result == null) {
-        delegate.removeObject(key);
+        entries.remove();
       } else {
-        hardLinksToAvoidGarbageCollection.addFirst(result);
-        if (hardLinksToAvoidGarbageCollection.size() > numberOfHardLinks) {
-          hardLinksToAvoidGarbageCollection.removeLast();
-        }
+        entry.setValue(result);
       }
     }
-    return result;
+    return objects;
   }
 
   @Override
@@ -100,6 +118,24 @@ public class WeakCache implements Cache {
     return null;
   }
 
+  private Object dereference(Object key, Object reference) {
+    Object result = null;
+    @SuppressWarnings("unchecked") // assumed delegate cache is totally managed by this cache
+    WeakReference<Object> weakReference = (WeakReference<Object>) reference;
+    if (weakReference != null) {
+      result = weakReference.get();
+      if (result == null) {
+        delegate.removeObject(key);
+      } else {
+        hardLinksToAvoidGarbageCollection.addFirst(result);
+        if (hardLinksToAvoidGarbageCollection.size() > numberOfHardLinks) {
+          hardLinksToAvoidGarbageCollection.removeLast();
+        }
+      }
+    }
+    return result;
+  }
+
   private void removeGarbageCollectedItems() {
     WeakEntry sv;
     while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
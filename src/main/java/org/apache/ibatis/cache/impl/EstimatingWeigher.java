@@ -0,0 +1,162 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.Weigher;
+
+/**
+ * Default weigher, an approximation of the heap taken by a cached value, in bytes.
+ *
+ * Large lists are not walked: a few elements spread over the list are measured and the average
+ * is multiplied by the size of the list. Objects are measured by their fields, not their getters,
+ * so lazy loading is never triggered, and only down to a few levels of nesting. The key is not counted.
+ */
+public class EstimatingWeigher implements Weigher {
+
+  private static final int SAMPLES = 8;
+  private static final int MAX_DEPTH = 4;
+  private static final int OBJECT_HEADER = 16;
+  private static final int REFERENCE = 8;
+
+  private final Map<Class<?>, Field[]> fields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+  @Override
+  public long weigh(Object key, Object value) {
+    return estimate(value, MAX_DEPTH, new IdentityHashMap<Object, Object>());
+  }
+
+  private long estimate(Object value, int depth, Map<Object, Object> seen) {
+    if (value == null || depth < 0 || seen.put(value, value) != null) {
+      return 0;
+    }
+    Class<?> type = value.getClass();
+    if (value instanceof String) {
+      return OBJECT_HEADER + 24 + 2L * ((String) value).length();
+    } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      return value instanceof BigDecimal || value instanceof BigInteger ? 64 : OBJECT_HEADER + 8;
+    } else if (value instanceof Date) {
+      return OBJECT_HEADER + 16;
+    } else if (value instanceof Enum || value instanceof Class) {
+      return 0;
+    } else if (type.isArray()) {
+      return estimateArray(value, type, depth, seen);
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      return 40 + (long) REFERENCE * collection.size() + estimateElements(collection, depth, seen);
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      return 48 + 40L * map.size()
+          + estimateElements(map.keySet(), depth, seen) + estimateElements(map.values(), depth, seen);
+    }
+    long size = OBJECT_HEADER;
+    for (Field field : getFields(type)) {
+      Class<?> fieldType = field.getType();
+      if (fieldType.isPrimitive()) {
+        size += sizeOf(fieldType);
+      } else {
+        size += REFERENCE;
+        try {
+          size += estimate(field.get(value), depth - 1, seen);
+        } catch (IllegalAccessException e) {
+          // Ignored. The field is counted as a reference only.
+        }
+      }
+    }
+    return size;
+  }
+
+  private long estimateArray(Object array, Class<?> type, int depth, Map<Object, Object> seen) {
+    Class<?> componentType = type.getComponentType();
+    if (componentType.isPrimitive()) {
+      return OBJECT_HEADER + (long) sizeOf(componentType) * Array.getLength(array);
+    }
+    List<Object> elements = Arrays.asList((Object[]) array);
+    return OBJECT_HEADER + (long) REFERENCE * elements.size() + estimateElements(elements, depth, seen);
+  }
+
+  private static int sizeOf(Class<?> primitiveType) {
+    if (primitiveType == long.class || primitiveType == double.class) {
+      return 8;
+    } else if (primitiveType == int.class || primitiveType == float.class) {
+      return 4;
+    } else if (primitiveType == short.class || primitiveType == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private long estimateElements(Collection<?> elements, int depth, Map<Object, Object> seen) {
+    int size = elements.size();
+    if (size == 0) {
+      return 0;
+    }
+    long sampled = 0;
+    int samples = 0;
+    if (elements instanceof List && elements instanceof RandomAccess) {
+      List<?> list = (List<?>) elements;
+      int step = Math.max(1, size / SAMPLES);
+      for (int i = 0; i < size && samples < SAMPLES; i += step, samples++) {
+        sampled += estimate(list.get(i), depth - 1, seen);
+      }
+    } else {
+      Iterator<?> iterator = elements.iterator();
+      while (iterator.hasNext() && samples < SAMPLES) {
+        sampled += estimate(iterator.next(), depth - 1, seen);
+        samples++;
+      }
+    }
+    return sampled * size / samples;
+  }
+
+  private Field[] getFields(Class<?> type) {
+    Field[] result = fields.get(type);
+    if (result == null) {
+      List<Field> found = new ArrayList<Field>();
+      for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            try {
+              field.setAccessible(true);
+              found.add(field);
+            } catch (Exception e) {
+              // Ignored. The field is left out of the estimate.
+            }
+          }
+        }
+      }
+      result = found.toArray(new Field[found.size()]);
+      fields.put(type, result);
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,564 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.cache.serializer.Serializer;
+
+/**
+ * Cache kept in a memory-mapped file, shared by the processes of a host that map the same file, so
+ * they hold one copy of the values they all read.
+ *
+ * The file holds a header, an index of {@code slots} slots and a data area of {@code capacity} bytes.
+ * Each entry is a record with its serialized key and value, appended to the data area used as a ring,
+ * so the oldest records are overwritten as new ones are written. A slot holds the 64 bit hash of the
+ * key, the position of its record and the generation it was written in. The index is open addressed:
+ * a key may be in any of the few slots following its hash.
+ *
+ * Reads take no lock. Each slot has a sequence counter, odd while the slot is written, that a reader
+ * checks before and after reading it. {@link #clear()} only increments the generation of the file, the
+ * slots of older generations then read as empty. A record also stores a checksum, and its position is
+ * compared with the end of the ring once copied, so a record overwritten meanwhile is a miss, never a
+ * wrong value. Writes are serialized by a lock on the file, as Java offers no atomic operation on mapped
+ * memory.
+ *
+ * Values are copies, so this cache behaves as a read-write cache whatever the readOnly setting.
+ * Keys and values are turned into bytes by the {@code serializer}, Java serialization by default, which
+ * every process mapping the file must share. Equal keys must serialize to the same bytes.
+ *
+ * @since 3.4.3
+ */
+public class MappedFileCache implements BulkCache, InitializingObject, Closeable {
+
+  private static final int MAGIC = 0x4D424D43;
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 64;
+  private static final int SLOTS_OFFSET = 8;
+  private static final int CAPACITY_OFFSET = 16;
+  private static final int GENERATION_OFFSET = 24;
+  private static final int TAIL_OFFSET = 32;
+
+  private static final int SLOT_SIZE = 40;
+  private static final int SLOT_HASH = 8;
+  private static final int SLOT_GENERATION = 16;
+  private static final int SLOT_POSITION = 24;
+  private static final int SLOT_LENGTH = 32;
+
+  // key length, value length and checksum
+  private static final int RECORD_HEADER_SIZE = 16;
+  private static final int PROBES = 8;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  // a file may only be locked once per JVM, the caches mapping it here share a monitor
+  private static final ConcurrentHashMap<String, Object> fileMonitors = new ConcurrentHashMap<String, Object>();
+
+  private final String id;
+  private Serializer serializer = new JavaSerializer();
+  private String file;
+  private long capacity = 64L * 1024 * 1024;
+  private int slots = 65536;
+
+  private volatile MappedByteBuffer buffer;
+  private RandomAccessFile randomAccessFile;
+  private FileChannel channel;
+  private Object monitor;
+  private long dataOffset;
+  private long maxRecordSize;
+
+  public MappedFileCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public synchronized void initialize() {
+    if (buffer != null) {
+      return;
+    }
+    int slotCount = Integer.highestOneBit(Math.max(slots, PROBES) - 1) << 1;
+    if (capacity < 4096 || (long) slotCount * SLOT_SIZE > Integer.MAX_VALUE
+        || HEADER_SIZE + (long) slotCount * SLOT_SIZE + capacity > Integer.MAX_VALUE) {
+      throw new CacheException("Invalid mapped file cache sizes for '" + id + "': capacity " + capacity + ", slots " + slots);
+    }
+    File mappedFile = new File(file == null ? System.getProperty("java.io.tmpdir") : file);
+    if (file == null) {
+      mappedFile = new File(mappedFile, "mybatis-cache-" + id + ".cache");
+    }
+    try {
+      String path = mappedFile.getCanonicalPath();
+      Object created = new Object();
+      Object existing = fileMonitors.putIfAbsent(path, created);
+      monitor = existing == null ? created : existing;
+      long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE + capacity;
+      synchronized (monitor) {
+        randomAccessFile = new RandomAccessFile(mappedFile, "rw");
+        channel = randomAccessFile.getChannel();
+        FileLock lock = channel.lock();
+        try {
+          MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+          if (mapped.getInt(0) != MAGIC) {
+            mapped.putInt(4, VERSION);
+            mapped.putInt(SLOTS_OFFSET, slotCount);
+            mapped.putLong(CAPACITY_OFFSET, capacity);
+            mapped.putLong(GENERATION_OFFSET, 1);
+            mapped.putLong(TAIL_OFFSET, 0);
+            mapped.putInt(0, MAGIC);
+          } else if (mapped.getInt(4) != VERSION || mapped.getInt(SLOTS_OFFSET) != slotCount
+              || mapped.getLong(CAPACITY_OFFSET) != capacity) {
+            throw new CacheException("The file " + path + " of the cache '" + id + "' was created with "
+                + mapped.getInt(SLOTS_OFFSET) + " slots and a capacity of " + mapped.getLong(CAPACITY_OFFSET)
+                + ", not " + slotCount + " and " + capacity);
+          }
+          slots = slotCount;
+          dataOffset = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+          maxRecordSize = capacity / 4;
+          buffer = mapped;
+        } finally {
+          lock.release();
+          if (buffer == null) {
+            closeFile();
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new CacheException("Could not map the file " + mappedFile + " of the cache '" + id + "'.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Counts the entries of the file, scanning the whole index.
+   */
+  @Override
+  public int getSize() {
+    ByteBuffer mapped = mapped();
+    long generation = mapped.getLong(GENERATION_OFFSET);
+    long tail = mapped.getLong(TAIL_OFFSET);
+    int size = 0;
+    for (int i = 0; i < slots; i++) {
+      int slot = slotOffset(i);
+      if (mapped.getLong(slot + SLOT_HASH) != 0 && mapped.getLong(slot + SLOT_GENERATION) == generation
+          && tail - mapped.getLong(slot + SLOT_POSITION) <= capacity) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    ByteBuffer mapped = mapped();
+    byte[][] record = serialize(key, value);
+    synchronized (monitor) {
+      FileLock lock = lock();
+      try {
+        write(mapped, record[0], record[1]);
+      } finally {
+        release(lock);
+      }
+    }
+  }
+
+  /**
+   * Writes all the entries under a single lock of the file.
+   */
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    ByteBuffer mapped = mapped();
+    List<byte[][]> records = new ArrayList<byte[][]>(entries.size());
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      records.add(serialize(entry.getKey(), entry.getValue()));
+    }
+    synchronized (monitor) {
+      FileLock lock = lock();
+      try {
+        for (byte[][] record : records) {
+          write(mapped, record[0], record[1]);
+        }
+      } finally {
+        release(lock);
+      }
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    ByteBuffer mapped = mapped();
+    byte[] keyBytes = serializer.serialize(key);
+    long hash = hash(keyBytes, 0, keyBytes.length);
+    long generation = mapped.getLong(GENERATION_OFFSET);
+    int first = (int) hash & (slots - 1);
+    for (int probe = 0; probe < PROBES; probe++) {
+      byte[] record = readRecord(mapped, slotOffset((first + probe) & (slots - 1)), hash, generation);
+      if (record != null && matches(record, keyBytes)) {
+        try {
+          return serializer.deserialize(Arrays.copyOfRange(record, RECORD_HEADER_SIZE + keyBytes.length, record.length));
+        } catch (CacheException e) {
+          // overwritten as it was read
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        objects.put(key, value);
+      }
+    }
+    return objects;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object value = getObject(key);
+    putObject(key, null);
+    return value;
+  }
+
+  /**
+   * Clears the cache for every process sharing the file.
+   */
+  @Override
+  public void clear() {
+    ByteBuffer mapped = mapped();
+    synchronized (monitor) {
+      FileLock lock = lock();
+      try {
+        mapped.putLong(GENERATION_OFFSET, mapped.getLong(GENERATION_OFFSET) + 1);
+      } finally {
+        release(lock);
+      }
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Closes the file. The mapping is released once its buffer is garbage collected, as it cannot be unmapped
+   * safely while a reader may still use it. A cache used again maps the file again.
+   */
+  @Override
+  public synchronized void close() {
+    if (buffer == null) {
+      return;
+    }
+    buffer = null;
+    try {
+      closeFile();
+    } catch (IOException e) {
+      throw new CacheException("Could not close the file of the cache '" + id + "'.  Cause: " + e, e);
+    }
+  }
+
+  public String getFile() {
+    return file;
+  }
+
+  /**
+   * The file to map, by default {@code mybatis-cache-<id>.cache} in the temporary directory.
+   */
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Bytes of the data area. Records larger than a quarter of it are not stored.
+   */
+  public void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public int getSlots() {
+    return slots;
+  }
+
+  /**
+   * Number of slots of the index, rounded up to a power of two.
+   */
+  public void setSlots(int slots) {
+    this.slots = slots;
+  }
+
+  public Serializer getSerializer() {
+    return serializer;
+  }
+
+  public void setSerializer(Serializer serializer) {
+    this.serializer = serializer;
+  }
+
+  /**
+   * The generation of the file, incremented by every clear.
+   */
+  public long getGeneration() {
+    return mapped().getLong(GENERATION_OFFSET);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+    return getId().equals(((Cache) o).getId());
+  }
+
+  @Override
+  public int hashCode() {
+    return getId().hashCode();
+  }
+
+  private ByteBuffer mapped() {
+    if (buffer == null) {
+      initialize();
+    }
+    return buffer;
+  }
+
+  private void closeFile() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      randomAccessFile.close();
+      channel = null;
+      randomAccessFile = null;
+    }
+  }
+
+  private FileLock lock() {
+    try {
+      return channel.lock();
+    } catch (IOException e) {
+      throw new CacheException("Could not lock the file of the cache '" + id + "'.  Cause: " + e, e);
+    }
+  }
+
+  private void release(FileLock lock) {
+    try {
+      lock.release();
+    } catch (IOException e) {
+      throw new CacheException("Could not unlock the file of the cache '" + id + "'.  Cause: " + e, e);
+    }
+  }
+
+  private byte[][] serialize(Object key, Object value) {
+    byte[] keyBytes = serializer.serialize(key);
+    byte[] valueBytes = value == null ? null : serializer.serialize(value);
+    long length = valueBytes == null ? 0 : RECORD_HEADER_SIZE + (long) keyBytes.length + valueBytes.length;
+    if (length > maxRecordSize) {
+      // too large to share, any older value is dropped
+      valueBytes = null;
+    }
+    return new byte[][] { keyBytes, valueBytes };
+  }
+
+  private void write(ByteBuffer mapped, byte[] keyBytes, byte[] valueBytes) {
+    long hash = hash(keyBytes, 0, keyBytes.length);
+    if (valueBytes == null) {
+      int slot = find(mapped, hash, keyBytes);
+      if (slot >= 0) {
+        writeSlot(mapped, slot, 0, 0, 0, 0);
+      }
+      return;
+    }
+    long generation = mapped.getLong(GENERATION_OFFSET);
+    int slot = slotFor(mapped, hash, generation);
+    long position = append(mapped, keyBytes, valueBytes);
+    writeSlot(mapped, slot, hash, generation, position, RECORD_HEADER_SIZE + keyBytes.length + valueBytes.length);
+  }
+
+  private int slotOffset(int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  /*
+   * Called with the lock held. The slot of the same key if any, else a free or stale slot,
+   * else the slot of the oldest record.
+   */
+  private int slotFor(ByteBuffer mapped, long hash, long generation) {
+    long tail = mapped.getLong(TAIL_OFFSET);
+    int first = (int) hash & (slots - 1);
+    int free = -1;
+    int oldest = -1;
+    long oldestPosition = Long.MAX_VALUE;
+    for (int probe = 0; probe < PROBES; probe++) {
+      int slot = slotOffset((first + probe) & (slots - 1));
+      long slotHash = mapped.getLong(slot + SLOT_HASH);
+      long position = mapped.getLong(slot + SLOT_POSITION);
+      boolean live = slotHash != 0 && mapped.getLong(slot + SLOT_GENERATION) == generation && tail - position <= capacity;
+      if (live && slotHash == hash) {
+        return slot;
+      }
+      if (!live && free < 0) {
+        free = slot;
+      } else if (live && position < oldestPosition) {
+        oldest = slot;
+        oldestPosition = position;
+      }
+    }
+    return free >= 0 ? free : oldest;
+  }
+
+  // called with the lock held
+  private int find(ByteBuffer mapped, long hash, byte[] keyBytes) {
+    long generation = mapped.getLong(GENERATION_OFFSET);
+    int first = (int) hash & (slots - 1);
+    for (int probe = 0; probe < PROBES; probe++) {
+      int slot = slotOffset((first + probe) & (slots - 1));
+      byte[] record = readRecord(mapped, slot, hash, generation);
+      if (record != null && matches(record, keyBytes)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /*
+   * Called with the lock held. The end of the ring moves before the record is written, so a reader
+   * of the record overwritten sees it moved once it has copied the record.
+   */
+  private long append(ByteBuffer mapped, byte[] keyBytes, byte[] valueBytes) {
+    int length = RECORD_HEADER_SIZE + keyBytes.length + valueBytes.length;
+    long position = mapped.getLong(TAIL_OFFSET);
+    long offsetInRing = position % capacity;
+    if (offsetInRing + length > capacity) {
+      // records do not wrap around the end of the ring
+      position += capacity - offsetInRing;
+      offsetInRing = 0;
+    }
+    mapped.putLong(TAIL_OFFSET, position + length);
+    ByteBuffer record = ByteBuffer.allocate(length);
+    record.putInt(keyBytes.length);
+    record.putInt(valueBytes.length);
+    record.putLong(0);
+    record.put(keyBytes);
+    record.put(valueBytes);
+    byte[] bytes = record.array();
+    record.putLong(8, hash(bytes, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE));
+    ByteBuffer data = mapped.duplicate();
+    data.position((int) (dataOffset + offsetInRing));
+    data.put(bytes);
+    return position;
+  }
+
+  private void writeSlot(ByteBuffer mapped, int slot, long hash, long generation, long position, int length) {
+    long sequence = mapped.getLong(slot);
+    mapped.putLong(slot, sequence + 1);
+    mapped.putLong(slot + SLOT_HASH, hash);
+    mapped.putLong(slot + SLOT_GENERATION, generation);
+    mapped.putLong(slot + SLOT_POSITION, position);
+    mapped.putInt(slot + SLOT_LENGTH, length);
+    mapped.putLong(slot, sequence + 2);
+  }
+
+  /*
+   * Copies the record of the slot if it holds the hash, is of the current generation and is not
+   * being written nor overwritten; returns null otherwise.
+   */
+  private byte[] readRecord(ByteBuffer mapped, int slot, long hash, long generation) {
+    long sequence = mapped.getLong(slot);
+    if ((sequence & 1) != 0 || mapped.getLong(slot + SLOT_HASH) != hash) {
+      return null;
+    }
+    long slotGeneration = mapped.getLong(slot + SLOT_GENERATION);
+    long position = mapped.getLong(slot + SLOT_POSITION);
+    int length = mapped.getInt(slot + SLOT_LENGTH);
+    if (mapped.getLong(slot) != sequence || slotGeneration != generation
+        || length <= RECORD_HEADER_SIZE || length > maxRecordSize || position < 0) {
+      return null;
+    }
+    byte[] record = new byte[length];
+    ByteBuffer data = mapped.duplicate();
+    data.position((int) (dataOffset + position % capacity));
+    data.get(record);
+    if (mapped.getLong(TAIL_OFFSET) - position > capacity) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.wrap(record);
+    long keyLength = header.getInt(0);
+    long valueLength = header.getInt(4);
+    if (keyLength < 0 || valueLength < 0 || RECORD_HEADER_SIZE + keyLength + valueLength != length
+        || header.getLong(8) != hash(record, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE)) {
+      return null;
+    }
+    return record;
+  }
+
+  private static boolean matches(byte[] record, byte[] keyBytes) {
+    if (ByteBuffer.wrap(record).getInt(0) != keyBytes.length) {
+      return false;
+    }
+    for (int i = 0; i < keyBytes.length; i++) {
+      if (record[RECORD_HEADER_SIZE + i] != keyBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long hash(byte[] bytes, int offset, int length) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = offset; i < offset + length; i++) {
+      hash ^= bytes[i] & 0xff;
+      hash *= FNV_PRIME;
+    }
+    // zero marks a free slot
+    return hash == 0 ? 1 : hash;
+  }
+
+}
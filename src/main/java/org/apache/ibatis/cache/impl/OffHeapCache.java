@@ -0,0 +1,348 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.BulkCache;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.EvictionListener;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.cache.serializer.Serializer;
+
+/**
+ * Cache that keeps its values serialized in direct memory, outside of the Java heap.
+ *
+ * The memory is split in blocks of {@code blockSize} bytes, allocated in slabs of {@code slabSize}
+ * bytes as they are needed, up to {@code capacity} bytes. Each entry holds its serialized key and
+ * value in a chain of blocks. The heap only keeps a 64 bit hash of the key and the block numbers,
+ * the stored key is compared on every read so a hash collision is a miss, never a wrong value.
+ * When there are not enough free blocks the least recently used entries are evicted.
+ *
+ * Keys and values are turned into bytes by the {@code serializer}, Java serialization by default.
+ * Values are copies, so this cache behaves as a read-write cache whatever the readOnly setting.
+ * It is not decorated with a SynchronizedCache and synchronizes by itself.
+ */
+public class OffHeapCache implements BulkCache, InitializingObject {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final String id;
+  private Serializer serializer = new JavaSerializer();
+  private long capacity = 64L * 1024 * 1024;
+  private int slabSize = 4 * 1024 * 1024;
+  private int blockSize = 4096;
+  private EvictionListener evictionListener;
+
+  private final Map<Long, Entry> index = new LinkedHashMap<Long, Entry>(16, .75F, true);
+  private ByteBuffer[] slabs;
+  private int blocksPerSlab;
+  private int totalBlocks;
+  private int[] freeBlocks;
+  private int freeCount;
+  private int nextUnusedBlock;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public synchronized void initialize() {
+    if (blockSize <= 0 || slabSize < blockSize || capacity < blockSize) {
+      throw new CacheException("Invalid off-heap cache sizes for '" + id + "': capacity " + capacity
+          + ", slabSize " + slabSize + ", blockSize " + blockSize);
+    }
+    blocksPerSlab = slabSize / blockSize;
+    long blocks = capacity / blockSize;
+    totalBlocks = blocks > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) blocks;
+    slabs = new ByteBuffer[(totalBlocks + blocksPerSlab - 1) / blocksPerSlab];
+    freeBlocks = new int[16];
+    freeCount = 0;
+    nextUnusedBlock = 0;
+    index.clear();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public synchronized int getSize() {
+    return index.size();
+  }
+
+  @Override
+  public synchronized void putObject(Object key, Object value) {
+    ensureInitialized();
+    byte[] keyBytes = serializer.serialize(key);
+    Long hash = hash(keyBytes);
+    release(index.remove(hash));
+    if (value == null) {
+      return;
+    }
+    byte[] valueBytes = serializer.serialize(value);
+    int blocks = blocksFor((long) keyBytes.length + valueBytes.length);
+    if (blocks > totalBlocks) {
+      return;
+    }
+    evictFor(blocks);
+    Entry entry = new Entry(keyBytes.length, valueBytes.length, new int[blocks]);
+    for (int i = 0; i < blocks; i++) {
+      entry.blocks[i] = allocate();
+    }
+    int position = write(entry, 0, keyBytes);
+    write(entry, position, valueBytes);
+    index.put(hash, entry);
+  }
+
+  @Override
+  public synchronized Object getObject(Object key) {
+    if (slabs == null) {
+      return null;
+    }
+    byte[] keyBytes = serializer.serialize(key);
+    Entry entry = index.get(hash(keyBytes));
+    if (entry == null || entry.keyLength != keyBytes.length) {
+      return null;
+    }
+    byte[] storedKey = new byte[entry.keyLength];
+    read(entry, 0, storedKey);
+    if (!Arrays.equals(keyBytes, storedKey)) {
+      return null;
+    }
+    byte[] valueBytes = new byte[entry.valueLength];
+    read(entry, entry.keyLength, valueBytes);
+    return serializer.deserialize(valueBytes);
+  }
+
+  @Override
+  public synchronized Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = getObject(key);
+      if (value != null) {
+        objects.put(key, value);
+      }
+    }
+    return objects;
+  }
+
+  @Override
+  public synchronized void putObjects(Map<?, ?> entries) {
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      putObject(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public synchronized Object removeObject(Object key) {
+    if (slabs == null) {
+      return null;
+    }
+    Object value = getObject(key);
+    release(index.remove(hash(serializer.serialize(key))));
+    return value;
+  }
+
+  @Override
+  public synchronized void clear() {
+    if (slabs == null) {
+      return;
+    }
+    index.clear();
+    freeCount = 0;
+    nextUnusedBlock = 0;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public int getSlabSize() {
+    return slabSize;
+  }
+
+  public void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  public Serializer getSerializer() {
+    return serializer;
+  }
+
+  public void setSerializer(Serializer serializer) {
+    this.serializer = serializer;
+  }
+
+  public EvictionListener getEvictionListener() {
+    return evictionListener;
+  }
+
+  public void setEvictionListener(EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * Bytes of direct memory taken by the stored entries, counted in whole blocks.
+   */
+  public synchronized long getUsedBytes() {
+    return (long) (nextUnusedBlock - freeCount) * blockSize;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+    return getId().equals(((Cache) o).getId());
+  }
+
+  @Override
+  public int hashCode() {
+    return getId().hashCode();
+  }
+
+  private void ensureInitialized() {
+    if (slabs == null) {
+      initialize();
+    }
+  }
+
+  private int blocksFor(long bytes) {
+    long blocks = (bytes + blockSize - 1) / blockSize;
+    return blocks > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) blocks;
+  }
+
+  private void evictFor(int blocks) {
+    Iterator<Entry> eldest = index.values().iterator();
+    while (freeCount + totalBlocks - nextUnusedBlock < blocks && eldest.hasNext()) {
+      Entry entry = eldest.next();
+      eldest.remove();
+      release(entry);
+      if (evictionListener != null) {
+        evictionListener.entryEvicted();
+      }
+    }
+  }
+
+  private int allocate() {
+    if (freeCount > 0) {
+      return freeBlocks[--freeCount];
+    }
+    int block = nextUnusedBlock++;
+    int slab = block / blocksPerSlab;
+    if (slabs[slab] == null) {
+      int blocksInSlab = Math.min(blocksPerSlab, totalBlocks - slab * blocksPerSlab);
+      slabs[slab] = ByteBuffer.allocateDirect(blocksInSlab * blockSize);
+    }
+    return block;
+  }
+
+  private void release(Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    for (int block : entry.blocks) {
+      if (freeCount == freeBlocks.length) {
+        freeBlocks = Arrays.copyOf(freeBlocks, freeBlocks.length * 2);
+      }
+      freeBlocks[freeCount++] = block;
+    }
+  }
+
+  private int write(Entry entry, int position, byte[] bytes) {
+    int offset = 0;
+    while (offset < bytes.length) {
+      int length = Math.min(bytes.length - offset, blockSize - position % blockSize);
+      ByteBuffer buffer = slice(entry.blocks[position / blockSize], position % blockSize);
+      buffer.put(bytes, offset, length);
+      offset += length;
+      position += length;
+    }
+    return position;
+  }
+
+  private void read(Entry entry, int position, byte[] bytes) {
+    int offset = 0;
+    while (offset < bytes.length) {
+      int length = Math.min(bytes.length - offset, blockSize - position % blockSize);
+      ByteBuffer buffer = slice(entry.blocks[position / blockSize], position % blockSize);
+      buffer.get(bytes, offset, length);
+      offset += length;
+      position += length;
+    }
+  }
+
+  private ByteBuffer slice(int block, int offsetInBlock) {
+    ByteBuffer buffer = slabs[block / blocksPerSlab].duplicate();
+    buffer.position((block % blocksPerSlab) * blockSize + offsetInBlock);
+    return buffer;
+  }
+
+  private static Long hash(byte[] bytes) {
+    long hash = FNV_OFFSET_BASIS;
+    for (byte b : bytes) {
+      hash ^= b & 0xff;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  private static class Entry {
+
+    private final int keyLength;
+    private final int valueLength;
+    private final int[] blocks;
+
+    Entry(int keyLength, int valueLength, int[] blocks) {
+      this.keyLength = keyLength;
+      this.valueLength = valueLength;
+      this.blocks = blocks;
+    }
+  }
+
+}
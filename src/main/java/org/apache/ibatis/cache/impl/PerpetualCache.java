@@ -15,17 +15,19 @@
  */
 package org.apache.ibatis.cache.impl;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.cache.BulkCache;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
 
 /**
  * @author Clinton Begin
  */
-public class PerpetualCache implements Cache {
+public class PerpetualCache implements BulkCache {
 
   private String id;
 
@@ -55,6 +57,23 @@ public class PerpetualCache implements Cache {
     return cache.get(key);
   }
 
+  @Override
+  public Map<Object, Object> getObjects(Collection<?> keys) {
+    Map<Object, Object> objects = new HashMap<Object, Object>();
+    for (Object key : keys) {
+      Object value = cache.get(key);
+      if (value != null) {
+        objects.put(key, value);
+      }
+    }
+    return objects;
+  }
+
+  @Override
+  public void putObjects(Map<?, ?> entries) {
+    cache.putAll(entries);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return cache.remove(key);
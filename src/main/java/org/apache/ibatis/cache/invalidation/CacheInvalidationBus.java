@@ -0,0 +1,310 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.NullCacheKey;
+import org.apache.ibatis.cache.decorators.BroadcastingCache;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.cache.serializer.Serializer;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Publishes the invalidations of the second level caches of this node to the other nodes, and applies
+ * theirs to the caches of the same ids here.
+ *
+ * The clears and removals reach the bus through the {@link org.apache.ibatis.cache.decorators.BroadcastingCache}
+ * decorator, the tables written by a commit when they invalidate the caches by table. Between {@link #begin()}
+ * and {@link #end()}, as a session commits, the invalidations of the thread are gathered in one message.
+ * Any other is published at once.
+ *
+ * A failure to publish is logged and does not fail the commit, the entries of the other nodes then stay
+ * stale until they expire.
+ *
+ * The messages of other nodes are read only when they hold the classes of a message and of the usual
+ * cache keys: strings, numbers, dates and arrays of them. The removal of a key holding anything else is
+ * sent as the clear of its cache.
+ *
+ * @since 3.4.3
+ */
+public class CacheInvalidationBus {
+
+  private static final Log log = LogFactory.getLog(CacheInvalidationBus.class);
+
+  private static final Set<String> ALLOWED_CLASSES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+      InvalidationMessage.class.getName(), CacheKey.class.getName(), NullCacheKey.class.getName(),
+      "java.util.ArrayList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.HashSet",
+      "java.util.LinkedHashSet", "java.lang.Number", "java.lang.Boolean", "java.lang.Byte", "java.lang.Character",
+      "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+      "java.math.BigInteger", "java.math.BigDecimal", "java.util.Date", "java.sql.Date", "java.sql.Time",
+      "java.sql.Timestamp", "[Ljava.lang.Object;", "[Ljava.lang.String;", "[Z", "[B", "[C", "[S", "[I", "[J",
+      "[F", "[D")));
+
+  private final Configuration configuration;
+  private final InvalidationTransport transport;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final Serializer serializer = new JavaSerializer();
+  private final ThreadLocal<InvalidationMessage> batch = new ThreadLocal<InvalidationMessage>();
+  // set while the messages of other nodes are applied, so they are not published back
+  private final ThreadLocal<Boolean> applying = new ThreadLocal<Boolean>();
+  // the received removals are applied below any blocking decorator, which would only release a lock
+  private final ConcurrentHashMap<String, BroadcastingCache> broadcastingCaches = new ConcurrentHashMap<String, BroadcastingCache>();
+
+  public CacheInvalidationBus(Configuration configuration, InvalidationTransport transport) {
+    this.configuration = configuration;
+    this.transport = transport;
+  }
+
+  public void start() {
+    transport.start(new InvalidationReceiver() {
+      @Override
+      public void received(byte[] message) {
+        receive(message);
+      }
+    });
+  }
+
+  public void stop() {
+    transport.stop();
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public InvalidationTransport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Registers the decorator that broadcasts the invalidations of a cache, the received ones are applied
+   * to the cache it decorates.
+   */
+  public void register(BroadcastingCache cache) {
+    broadcastingCaches.put(cache.getId(), cache);
+  }
+
+  /**
+   * Gathers the following invalidations of the calling thread in one message.
+   */
+  public void begin() {
+    if (batch.get() == null) {
+      batch.set(new InvalidationMessage(nodeId));
+    }
+  }
+
+  /**
+   * Publishes the invalidations gathered since {@link #begin()}.
+   */
+  public void end() {
+    InvalidationMessage message = batch.get();
+    batch.remove();
+    if (message != null) {
+      publish(message);
+    }
+  }
+
+  /**
+   * Drops the invalidations gathered since {@link #begin()}, like the locks a rollback releases.
+   */
+  public void discard() {
+    batch.remove();
+  }
+
+  public void cacheCleared(String cacheId) {
+    InvalidationMessage message = message();
+    if (message != null) {
+      message.cacheCleared(cacheId);
+      publishUnlessBatched(message);
+    }
+  }
+
+  public void entryRemoved(String cacheId, Object key) {
+    InvalidationMessage message = message();
+    if (message != null) {
+      message.entryRemoved(cacheId, key);
+      publishUnlessBatched(message);
+    }
+  }
+
+  /**
+   * @param tables the tables written, null if they are unknown
+   */
+  public void tablesWritten(Collection<String> tables) {
+    InvalidationMessage message = message();
+    if (message != null) {
+      message.tablesWritten(tables);
+      publishUnlessBatched(message);
+    }
+  }
+
+  private InvalidationMessage message() {
+    if (applying.get() != null) {
+      return null;
+    }
+    InvalidationMessage message = batch.get();
+    return message == null ? new InvalidationMessage(nodeId) : message;
+  }
+
+  private void publishUnlessBatched(InvalidationMessage message) {
+    if (message != batch.get()) {
+      publish(message);
+    }
+  }
+
+  private void publish(InvalidationMessage message) {
+    if (message.isEmpty()) {
+      return;
+    }
+    try {
+      byte[] bytes;
+      try {
+        bytes = serializer.serialize(message);
+        if (!message.getRemovedKeys().isEmpty()) {
+          read(bytes);
+        }
+      } catch (CacheException e) {
+        // a key that cannot be sent or read, its whole cache is cleared instead
+        message.clearInsteadOfRemove();
+        bytes = serializer.serialize(message);
+      }
+      transport.publish(bytes);
+    } catch (RuntimeException e) {
+      log.warn("Could not publish " + message + ".  Cause: " + e);
+    }
+  }
+
+  void receive(byte[] bytes) {
+    InvalidationMessage message;
+    try {
+      message = read(bytes);
+    } catch (RuntimeException e) {
+      log.warn("Could not read a cache invalidation message.  Cause: " + e);
+      return;
+    }
+    if (nodeId.equals(message.getOrigin())) {
+      return;
+    }
+    applying.set(Boolean.TRUE);
+    try {
+      apply(message);
+    } finally {
+      applying.remove();
+    }
+  }
+
+  private void apply(InvalidationMessage message) {
+    for (String cacheId : message.getClearedCaches()) {
+      Cache cache = getCache(cacheId);
+      if (cache != null) {
+        try {
+          cache.clear();
+        } catch (RuntimeException e) {
+          log.warn("Could not clear the cache " + cacheId + " for " + message + ".  Cause: " + e);
+        }
+      }
+    }
+    for (Map.Entry<String, List<Object>> entry : message.getRemovedKeys().entrySet()) {
+      BroadcastingCache broadcastingCache = broadcastingCaches.get(entry.getKey());
+      if (broadcastingCache == null) {
+        // not decorated for this bus, only a clear is sure to remove the entries
+        Cache cache = getCache(entry.getKey());
+        if (cache != null) {
+          try {
+            cache.clear();
+          } catch (RuntimeException e) {
+            log.warn("Could not clear the cache " + entry.getKey() + " for " + message + ".  Cause: " + e);
+          }
+        }
+        continue;
+      }
+      for (Object key : entry.getValue()) {
+        try {
+          broadcastingCache.getDelegate().removeObject(key);
+        } catch (RuntimeException e) {
+          log.warn("Could not remove " + key + " from the cache " + entry.getKey() + ".  Cause: " + e);
+        }
+      }
+    }
+    if (message.isAllTablesWritten()) {
+      configuration.getTableVersions().written(null);
+    } else if (!message.getWrittenTables().isEmpty()) {
+      configuration.getTableVersions().written(message.getWrittenTables());
+    }
+  }
+
+  private Cache getCache(String cacheId) {
+    return configuration.hasCache(cacheId) ? configuration.getCache(cacheId) : null;
+  }
+
+  private InvalidationMessage read(byte[] bytes) {
+    try {
+      ObjectInputStream in = new MessageInputStream(new ByteArrayInputStream(bytes));
+      try {
+        return (InvalidationMessage) in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (Exception e) {
+      throw new CacheException("Error reading a cache invalidation message.  Cause: " + e, e);
+    }
+  }
+
+  /*
+   * Reads only the classes of a message, so a message cannot make this node build any other object
+   */
+  private static class MessageInputStream extends ObjectInputStream {
+
+    MessageInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      if (!ALLOWED_CLASSES.contains(desc.getName())) {
+        throw new InvalidClassException(desc.getName(), "Not allowed in a cache invalidation message");
+      }
+      return super.resolveClass(desc);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+      throw new InvalidClassException("Proxies are not allowed in a cache invalidation message");
+    }
+
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The invalidations made by a node, usually all those of one commit: the caches cleared, the entries
+ * removed and the tables written.
+ *
+ * @since 3.4.3
+ */
+public class InvalidationMessage implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String origin;
+  private final Set<String> clearedCaches = new LinkedHashSet<String>();
+  private final Map<String, List<Object>> removedKeys = new LinkedHashMap<String, List<Object>>();
+  private final Set<String> writtenTables = new LinkedHashSet<String>();
+  private boolean allTablesWritten;
+
+  public InvalidationMessage(String origin) {
+    this.origin = origin;
+  }
+
+  /**
+   * The node that published the message.
+   */
+  public String getOrigin() {
+    return origin;
+  }
+
+  public Set<String> getClearedCaches() {
+    return Collections.unmodifiableSet(clearedCaches);
+  }
+
+  public Map<String, List<Object>> getRemovedKeys() {
+    return Collections.unmodifiableMap(removedKeys);
+  }
+
+  public Set<String> getWrittenTables() {
+    return Collections.unmodifiableSet(writtenTables);
+  }
+
+  /**
+   * Whether unknown tables were written, which invalidates every entry read by table.
+   */
+  public boolean isAllTablesWritten() {
+    return allTablesWritten;
+  }
+
+  public boolean isEmpty() {
+    return clearedCaches.isEmpty() && removedKeys.isEmpty() && writtenTables.isEmpty() && !allTablesWritten;
+  }
+
+  public void cacheCleared(String cacheId) {
+    clearedCaches.add(cacheId);
+    removedKeys.remove(cacheId);
+  }
+
+  public void entryRemoved(String cacheId, Object key) {
+    if (clearedCaches.contains(cacheId)) {
+      return;
+    }
+    List<Object> keys = removedKeys.get(cacheId);
+    if (keys == null) {
+      keys = new ArrayList<Object>();
+      removedKeys.put(cacheId, keys);
+    }
+    keys.add(key);
+  }
+
+  /**
+   * @param tables the tables written, null if they are unknown
+   */
+  public void tablesWritten(Collection<String> tables) {
+    if (tables == null || tables.isEmpty()) {
+      allTablesWritten = true;
+      writtenTables.clear();
+    } else if (!allTablesWritten) {
+      writtenTables.addAll(tables);
+    }
+  }
+
+  /**
+   * Replaces the removed entries by the clear of their caches, for keys that cannot be sent.
+   */
+  public void clearInsteadOfRemove() {
+    clearedCaches.addAll(removedKeys.keySet());
+    removedKeys.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "InvalidationMessage[origin=" + origin + ", clearedCaches=" + clearedCaches + ", removedKeys=" + removedKeys
+        + ", writtenTables=" + (allTablesWritten ? "all" : writtenTables) + "]";
+  }
+
+}
@@ -0,0 +1,43 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+/**
+ * Carries the invalidations of the second level caches between the nodes that share a database,
+ * each node running its own caches. Messages are opaque bytes; the transport needs not deliver them
+ * back to the node that published them.
+ *
+ * @since 3.4.3
+ */
+public interface InvalidationTransport {
+
+  /**
+   * Starts receiving the messages published by the other nodes.
+   */
+  void start(InvalidationReceiver receiver);
+
+  /**
+   * Sends a message to every other node. Called by the thread committing a session, so a transport
+   * over the network should not block long.
+   */
+  void publish(byte[] message);
+
+  /**
+   * Stops receiving messages and releases the resources of the transport.
+   */
+  void stop();
+
+}
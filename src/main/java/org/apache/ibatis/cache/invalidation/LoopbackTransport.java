@@ -0,0 +1,87 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers the messages to the other transports of the same channel in this JVM, synchronously.
+ * Meant for tests, where several configurations stand for several nodes.
+ *
+ * @since 3.4.3
+ */
+public class LoopbackTransport implements InvalidationTransport {
+
+  private static final ConcurrentHashMap<String, CopyOnWriteArrayList<LoopbackTransport>> channels = new ConcurrentHashMap<String, CopyOnWriteArrayList<LoopbackTransport>>();
+
+  private String channel;
+  private volatile InvalidationReceiver receiver;
+
+  public LoopbackTransport() {
+    this("default");
+  }
+
+  public LoopbackTransport(String channel) {
+    this.channel = channel;
+  }
+
+  public String getChannel() {
+    return channel;
+  }
+
+  public void setChannel(String channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public void start(InvalidationReceiver receiver) {
+    this.receiver = receiver;
+    CopyOnWriteArrayList<LoopbackTransport> transports = channels.get(channel);
+    if (transports == null) {
+      CopyOnWriteArrayList<LoopbackTransport> created = new CopyOnWriteArrayList<LoopbackTransport>();
+      transports = channels.putIfAbsent(channel, created);
+      if (transports == null) {
+        transports = created;
+      }
+    }
+    transports.addIfAbsent(this);
+  }
+
+  @Override
+  public void publish(byte[] message) {
+    CopyOnWriteArrayList<LoopbackTransport> transports = channels.get(channel);
+    if (transports == null) {
+      return;
+    }
+    for (LoopbackTransport transport : transports) {
+      InvalidationReceiver other = transport.receiver;
+      if (transport != this && other != null) {
+        other.received(message.clone());
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    receiver = null;
+    CopyOnWriteArrayList<LoopbackTransport> transports = channels.get(channel);
+    if (transports != null) {
+      transports.remove(this);
+    }
+  }
+
+}
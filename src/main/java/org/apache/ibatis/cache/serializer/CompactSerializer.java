@@ -0,0 +1,535 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+
+/**
+ * Compact binary serializer for the objects MyBatis usually maps.
+ *
+ * Strings, primitive wrappers, BigDecimal, BigInteger, dates, byte arrays, object arrays, enums and the
+ * common JDK lists, sets and maps have their own encoding. Result beans are written property by property,
+ * using the getters and setters found by the {@link Reflector}, so a copy is rebuilt the way MyBatis built
+ * the original: default constructor, then setters. As with Java serialization, the properties of static
+ * and transient fields are left out. Class and property names are written once per value,
+ * and shared or circular references are kept.
+ *
+ * Any other object, and beans that need a constructor with arguments or customize their serialization
+ * (like lazy loading proxies), is written with Java serialization. Values must be serializable, as with
+ * {@link JavaSerializer}.
+ */
+public class CompactSerializer implements Serializer {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String[] NOT_A_BEAN = new String[0];
+
+  private static final byte NULL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte BYTE = 3;
+  private static final byte SHORT = 4;
+  private static final byte INT = 5;
+  private static final byte LONG = 6;
+  private static final byte FLOAT = 7;
+  private static final byte DOUBLE = 8;
+  private static final byte CHAR = 9;
+  private static final byte STRING = 10;
+  private static final byte BIG_DECIMAL = 11;
+  private static final byte BIG_INTEGER = 12;
+  private static final byte DATE = 13;
+  private static final byte SQL_DATE = 14;
+  private static final byte SQL_TIME = 15;
+  private static final byte SQL_TIMESTAMP = 16;
+  private static final byte BYTES = 17;
+  private static final byte ARRAY = 18;
+  private static final byte ARRAY_LIST = 19;
+  private static final byte LINKED_LIST = 20;
+  private static final byte HASH_SET = 21;
+  private static final byte LINKED_HASH_SET = 22;
+  private static final byte HASH_MAP = 23;
+  private static final byte LINKED_HASH_MAP = 24;
+  private static final byte ENUM = 25;
+  private static final byte BEAN = 26;
+  private static final byte REFERENCE = 27;
+  private static final byte JAVA = 28;
+
+  private final ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+  private final Map<Class<?>, String[]> beanProperties = new ConcurrentHashMap<Class<?>, String[]>();
+  private final JavaSerializer javaSerializer = new JavaSerializer();
+
+  @Override
+  public byte[] serialize(Object value) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      new Writer(new DataOutputStream(bos)).writeValue(value);
+      return bos.toByteArray();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] bytes) {
+    try {
+      return new Reader(new DataInputStream(new ByteArrayInputStream(bytes))).readValue();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  private String[] getBeanProperties(Class<?> type) {
+    String[] properties = beanProperties.get(type);
+    if (properties == null) {
+      properties = findBeanProperties(type);
+      beanProperties.put(type, properties);
+    }
+    return properties;
+  }
+
+  private String[] findBeanProperties(Class<?> type) {
+    if (!Serializable.class.isAssignableFrom(type)
+        || Externalizable.class.isAssignableFrom(type)
+        || type.getName().startsWith("java.")
+        || type.getName().startsWith("javax.")
+        || hasSerializationMethods(type)) {
+      return NOT_A_BEAN;
+    }
+    Reflector reflector = reflectorFactory.findForClass(type);
+    if (!reflector.hasDefaultConstructor()) {
+      return NOT_A_BEAN;
+    }
+    List<String> properties = new ArrayList<String>();
+    for (String property : reflector.getGetablePropertyNames()) {
+      if (reflector.hasSetter(property) && !isStaticOrTransient(type, property)) {
+        properties.add(property);
+      }
+    }
+    String[] result = properties.toArray(new String[properties.size()]);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private static boolean isStaticOrTransient(Class<?> type, String property) {
+    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        if (field.getName().equals(property)) {
+          int modifiers = field.getModifiers();
+          return Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers);
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasSerializationMethods(Class<?> type) {
+    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+      for (Method method : current.getDeclaredMethods()) {
+        String name = method.getName();
+        if ("writeReplace".equals(name) || "readResolve".equals(name)
+            || "writeObject".equals(name) || "readObject".equals(name)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private class Writer {
+
+    private final DataOutputStream out;
+    private final Map<Object, Integer> references = new IdentityHashMap<Object, Integer>();
+    private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+    private final Set<Class<?>> layouts = new HashSet<Class<?>>();
+
+    Writer(DataOutputStream out) {
+      this.out = out;
+    }
+
+    void writeValue(Object value) throws Exception {
+      if (value == null) {
+        out.writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        out.writeByte(STRING);
+        writeString((String) value);
+      } else if (type == Integer.class) {
+        out.writeByte(INT);
+        writeVarLong(zigZag((Integer) value));
+      } else if (type == Long.class) {
+        out.writeByte(LONG);
+        writeVarLong(zigZag((Long) value));
+      } else if (type == Boolean.class) {
+        out.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (type == Double.class) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (type == Float.class) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) value);
+      } else if (type == Short.class) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) value);
+      } else if (type == Byte.class) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) value);
+      } else if (type == Character.class) {
+        out.writeByte(CHAR);
+        out.writeChar((Character) value);
+      } else if (type == BigDecimal.class) {
+        out.writeByte(BIG_DECIMAL);
+        writeVarLong(zigZag(((BigDecimal) value).scale()));
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+      } else if (type == BigInteger.class) {
+        out.writeByte(BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (type == Date.class) {
+        out.writeByte(DATE);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == java.sql.Timestamp.class) {
+        out.writeByte(SQL_TIMESTAMP);
+        out.writeLong(((Date) value).getTime());
+        writeVarLong(((java.sql.Timestamp) value).getNanos());
+      } else if (type == java.sql.Date.class) {
+        out.writeByte(SQL_DATE);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == java.sql.Time.class) {
+        out.writeByte(SQL_TIME);
+        out.writeLong(((Date) value).getTime());
+      } else if (type == byte[].class) {
+        out.writeByte(BYTES);
+        writeBytes((byte[]) value);
+      } else if (value instanceof Enum) {
+        out.writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+      } else if (writeReference(value)) {
+        return;
+      } else if (type.isArray() && !type.getComponentType().isPrimitive()) {
+        out.writeByte(ARRAY);
+        writeClass(type.getComponentType());
+        int length = Array.getLength(value);
+        writeVarLong(length);
+        for (int i = 0; i < length; i++) {
+          writeValue(Array.get(value, i));
+        }
+      } else if (type == ArrayList.class) {
+        writeCollection(ARRAY_LIST, (Collection<?>) value);
+      } else if (type == LinkedList.class) {
+        writeCollection(LINKED_LIST, (Collection<?>) value);
+      } else if (type == HashSet.class) {
+        writeCollection(HASH_SET, (Collection<?>) value);
+      } else if (type == LinkedHashSet.class) {
+        writeCollection(LINKED_HASH_SET, (Collection<?>) value);
+      } else if (type == HashMap.class) {
+        writeMap(HASH_MAP, (Map<?, ?>) value);
+      } else if (type == LinkedHashMap.class) {
+        writeMap(LINKED_HASH_MAP, (Map<?, ?>) value);
+      } else {
+        String[] properties = getBeanProperties(type);
+        if (properties == NOT_A_BEAN) {
+          out.writeByte(JAVA);
+          writeBytes(javaSerializer.serialize(value));
+        } else {
+          writeBean(type, properties, value);
+        }
+      }
+    }
+
+    private boolean writeReference(Object value) throws IOException {
+      Integer reference = references.get(value);
+      if (reference != null) {
+        out.writeByte(REFERENCE);
+        writeVarLong(reference);
+        return true;
+      }
+      references.put(value, references.size());
+      return false;
+    }
+
+    private void writeCollection(byte tag, Collection<?> collection) throws Exception {
+      out.writeByte(tag);
+      writeVarLong(collection.size());
+      for (Object element : collection) {
+        writeValue(element);
+      }
+    }
+
+    private void writeMap(byte tag, Map<?, ?> map) throws Exception {
+      out.writeByte(tag);
+      writeVarLong(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    private void writeBean(Class<?> type, String[] properties, Object bean) throws Exception {
+      out.writeByte(BEAN);
+      writeClass(type);
+      boolean newLayout = layouts.add(type);
+      out.writeBoolean(newLayout);
+      if (newLayout) {
+        writeVarLong(properties.length);
+        for (String property : properties) {
+          writeString(property);
+        }
+      }
+      Reflector reflector = reflectorFactory.findForClass(type);
+      for (String property : properties) {
+        writeValue(reflector.getGetInvoker(property).invoke(bean, null));
+      }
+    }
+
+    private void writeClass(Class<?> type) throws IOException {
+      Integer index = classes.get(type);
+      if (index != null) {
+        writeVarLong(index + 1);
+      } else {
+        classes.put(type, classes.size());
+        writeVarLong(0);
+        writeString(type.getName());
+      }
+    }
+
+    private void writeString(String value) throws IOException {
+      writeBytes(value.getBytes(UTF8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+      writeVarLong(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    private long zigZag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+  }
+
+  private class Reader {
+
+    private final DataInputStream in;
+    private final List<Object> references = new ArrayList<Object>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+    private final Map<Class<?>, String[]> layouts = new HashMap<Class<?>, String[]>();
+
+    Reader(DataInputStream in) {
+      this.in = in;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object readValue() throws Exception {
+      byte tag = in.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case BYTE:
+          return in.readByte();
+        case SHORT:
+          return in.readShort();
+        case INT:
+          return (int) unZigZag(readVarLong());
+        case LONG:
+          return unZigZag(readVarLong());
+        case FLOAT:
+          return in.readFloat();
+        case DOUBLE:
+          return in.readDouble();
+        case CHAR:
+          return in.readChar();
+        case STRING:
+          return readString();
+        case BIG_DECIMAL:
+          int scale = (int) unZigZag(readVarLong());
+          return new BigDecimal(new BigInteger(readBytes()), scale);
+        case BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case DATE:
+          return new Date(in.readLong());
+        case SQL_TIMESTAMP:
+          java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+          timestamp.setNanos((int) readVarLong());
+          return timestamp;
+        case SQL_DATE:
+          return new java.sql.Date(in.readLong());
+        case SQL_TIME:
+          return new java.sql.Time(in.readLong());
+        case BYTES:
+          return readBytes();
+        case ENUM:
+          return Enum.valueOf((Class<Enum>) readClass(), readString());
+        case REFERENCE:
+          return references.get((int) readVarLong());
+        case ARRAY:
+          Class<?> componentType = readClass();
+          Object array = Array.newInstance(componentType, (int) readVarLong());
+          references.add(array);
+          for (int i = 0; i < Array.getLength(array); i++) {
+            Array.set(array, i, readValue());
+          }
+          return array;
+        case ARRAY_LIST:
+          int size = (int) readVarLong();
+          return readCollection(new ArrayList<Object>(size), size);
+        case LINKED_LIST:
+          return readCollection(new LinkedList<Object>(), (int) readVarLong());
+        case HASH_SET:
+          return readCollection(new HashSet<Object>(), (int) readVarLong());
+        case LINKED_HASH_SET:
+          return readCollection(new LinkedHashSet<Object>(), (int) readVarLong());
+        case HASH_MAP:
+          return readMap(new HashMap<Object, Object>(), (int) readVarLong());
+        case LINKED_HASH_MAP:
+          return readMap(new LinkedHashMap<Object, Object>(), (int) readVarLong());
+        case BEAN:
+          return readBean();
+        case JAVA:
+          Object value = javaSerializer.deserialize(readBytes());
+          references.add(value);
+          return value;
+        default:
+          throw new CacheException("Unknown type tag " + tag + " in serialized cache value.");
+      }
+    }
+
+    private Collection<Object> readCollection(Collection<Object> collection, int size) throws Exception {
+      references.add(collection);
+      for (int i = 0; i < size; i++) {
+        collection.add(readValue());
+      }
+      return collection;
+    }
+
+    private Map<Object, Object> readMap(Map<Object, Object> map, int size) throws Exception {
+      references.add(map);
+      for (int i = 0; i < size; i++) {
+        Object key = readValue();
+        map.put(key, readValue());
+      }
+      return map;
+    }
+
+    private Object readBean() throws Exception {
+      Class<?> type = readClass();
+      String[] properties;
+      if (in.readBoolean()) {
+        properties = new String[(int) readVarLong()];
+        for (int i = 0; i < properties.length; i++) {
+          properties[i] = readString();
+        }
+        layouts.put(type, properties);
+      } else {
+        properties = layouts.get(type);
+      }
+      Reflector reflector = reflectorFactory.findForClass(type);
+      Object bean = reflector.getDefaultConstructor().newInstance();
+      references.add(bean);
+      for (String property : properties) {
+        Object value = readValue();
+        if (value != null || !reflector.getSetterType(property).isPrimitive()) {
+          reflector.getSetInvoker(property).invoke(bean, new Object[] { value });
+        }
+      }
+      return bean;
+    }
+
+    private Class<?> readClass() throws Exception {
+      int index = (int) readVarLong();
+      if (index > 0) {
+        return classes.get(index - 1);
+      }
+      Class<?> type = Resources.classForName(readString());
+      classes.add(type);
+      return type;
+    }
+
+    private String readString() throws IOException {
+      return new String(readBytes(), UTF8);
+    }
+
+    private byte[] readBytes() throws IOException {
+      byte[] bytes = new byte[(int) readVarLong()];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+    private long readVarLong() throws IOException {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = in.readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    private long unZigZag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+
+}
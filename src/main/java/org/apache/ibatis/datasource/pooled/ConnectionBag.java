@@ -0,0 +1,234 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free container for the connections of a {@link PooledDataSource}.
+ * <p>
+ * Every pooled connection lives in a shared copy-on-write list for its whole life and moves between
+ * states with a compare-and-set, so neither checkout nor return takes a monitor. Connections returned
+ * by a thread are remembered in a thread-local list and tried first the next time the same thread
+ * borrows. When there are waiting threads, returned connections are handed directly to the longest
+ * waiting one through a fair {@link SynchronousQueue}. The number of idle connections is counted
+ * on the state transitions, so reading it does not scan the connections.
+ */
+class ConnectionBag {
+
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_RESERVED = -1;
+  static final int STATE_REMOVED = -2;
+
+  private final CopyOnWriteArrayList<PooledConnection> sharedList = new CopyOnWriteArrayList<PooledConnection>();
+  private final ThreadLocal<List<WeakReference<PooledConnection>>> threadList = new ThreadLocal<List<WeakReference<PooledConnection>>>() {
+    @Override
+    protected List<WeakReference<PooledConnection>> initialValue() {
+      return new ArrayList<WeakReference<PooledConnection>>(16);
+    }
+  };
+  private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<PooledConnection>(true);
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicInteger capacity = new AtomicInteger();
+  private final AtomicInteger idle = new AtomicInteger();
+
+  /*
+   * Borrows an idle connection, waiting up to the timeout for one to be returned
+   *
+   * @param timeout - how long to wait, zero to not wait at all
+   * @param unit - the unit of the timeout
+   * @return the connection, now in use, or null if none became available in time
+   */
+  PooledConnection borrow(long timeout, TimeUnit unit) throws InterruptedException {
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      PooledConnection conn = list.remove(i).get();
+      if (conn != null && take(conn, STATE_IN_USE)) {
+        return conn;
+      }
+    }
+
+    waiters.incrementAndGet();
+    try {
+      for (PooledConnection conn : sharedList) {
+        if (take(conn, STATE_IN_USE)) {
+          return conn;
+        }
+      }
+
+      long remaining = unit.toNanos(timeout);
+      while (remaining > 0) {
+        long start = System.nanoTime();
+        PooledConnection conn = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (conn == null) {
+          return null;
+        }
+        if (take(conn, STATE_IN_USE)) {
+          return conn;
+        }
+        remaining -= System.nanoTime() - start;
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Makes an in-use connection available again, preferably handing it to a waiting thread
+   *
+   * @param conn - the connection to return
+   */
+  void requite(PooledConnection conn) {
+    release(conn, STATE_IN_USE);
+  }
+
+  /*
+   * Puts a connection taken out with reserve back into circulation
+   *
+   * @param conn - the reserved connection
+   */
+  void unreserve(PooledConnection conn) {
+    release(conn, STATE_RESERVED);
+  }
+
+  private void release(PooledConnection conn, int expectedState) {
+    if (!conn.compareAndSetState(expectedState, STATE_NOT_IN_USE)) {
+      // removed in the meantime
+      return;
+    }
+    idle.incrementAndGet();
+    while (waiters.get() > 0) {
+      if (conn.getState() != STATE_NOT_IN_USE || handoffQueue.offer(conn)) {
+        return;
+      }
+      Thread.yield();
+    }
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    if (list.size() < 16) {
+      list.add(new WeakReference<PooledConnection>(conn));
+    }
+  }
+
+  /*
+   * Reserves room for a new connection if the bag holds fewer than the given number
+   *
+   * @param maximum - the maximum number of connections
+   * @return True if the caller may create a connection and must then add or release it
+   */
+  boolean reserveCapacity(int maximum) {
+    for (;;) {
+      int current = capacity.get();
+      if (current >= maximum) {
+        return false;
+      }
+      if (capacity.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /*
+   * Gives back room reserved with reserveCapacity that was not used
+   */
+  void releaseCapacity() {
+    capacity.decrementAndGet();
+  }
+
+  /*
+   * Adds a newly created, in-use connection to the bag. Room must have been reserved.
+   *
+   * @param conn - the connection to add
+   */
+  void add(PooledConnection conn) {
+    conn.setState(STATE_IN_USE);
+    sharedList.add(conn);
+  }
+
+  /*
+   * Removes a connection from the bag for good
+   *
+   * @param conn - the connection to remove
+   * @return True if this call removed it
+   */
+  boolean remove(PooledConnection conn) {
+    int previous = conn.getAndSetState(STATE_REMOVED);
+    if (sharedList.remove(conn)) {
+      if (previous == STATE_NOT_IN_USE) {
+        idle.decrementAndGet();
+      }
+      capacity.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Takes an idle connection out of circulation so it can be inspected or retired
+   *
+   * @param conn - the connection to reserve
+   * @return True if the connection was idle and is now reserved by the caller
+   */
+  boolean reserve(PooledConnection conn) {
+    return take(conn, STATE_RESERVED);
+  }
+
+  private boolean take(PooledConnection conn, int newState) {
+    if (conn.compareAndSetState(STATE_NOT_IN_USE, newState)) {
+      idle.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * @return a read-only view of the connections, iterating over a snapshot without copying it
+   */
+  List<PooledConnection> values() {
+    return Collections.unmodifiableList(sharedList);
+  }
+
+  int getIdleCount() {
+    return idle.get();
+  }
+
+  int getCount(int state) {
+    int count = 0;
+    for (PooledConnection conn : sharedList) {
+      if (conn.getState() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int size() {
+    return sharedList.size();
+  }
+
+  int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+}
@@ -0,0 +1,69 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time summary of a latency histogram of a {@link PooledDataSource}. Times are in milliseconds.
+ */
+public class LatencySnapshot {
+
+  private final long count;
+  private final long mean;
+  private final long median;
+  private final long percentile99;
+  private final long max;
+
+  LatencySnapshot(long count, long mean, long median, long percentile99, long max) {
+    this.count = count;
+    this.mean = mean;
+    this.median = median;
+    this.percentile99 = percentile99;
+    this.max = max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return toMillis(mean);
+  }
+
+  public double getMedian() {
+    return toMillis(median);
+  }
+
+  public double getPercentile99() {
+    return toMillis(percentile99);
+  }
+
+  public double getMax() {
+    return toMillis(max);
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + count + ", mean=" + getMean() + "ms, p50=" + getMedian() + "ms, p99=" + getPercentile99()
+        + "ms, max=" + getMax() + "ms";
+  }
+
+}
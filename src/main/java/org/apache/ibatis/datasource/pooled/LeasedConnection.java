@@ -0,0 +1,403 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.Method;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.ClientInfoStatus;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * The {@link Connection} handed out for one checkout of a {@link PooledConnection}.
+ * <p>
+ * Calls are delegated straight to the physical connection, after checking that this checkout is still the
+ * current one. Only {@code close()} is intercepted, to return the connection to the pool, and
+ * {@code prepareStatement} when the pool caches prepared statements.
+ * <p>
+ * The autocommit, transaction isolation and read-only state is remembered per physical connection, so
+ * reading it, or setting it to the value it already has, does not reach the driver. A change of that state
+ * made with SQL or on the unwrapped connection is not seen by the pool.
+ */
+class LeasedConnection implements Connection {
+
+  private final PooledConnection pooled;
+  private final Connection real;
+
+  LeasedConnection(PooledConnection pooled) {
+    this.pooled = pooled;
+    this.real = pooled.getRealConnection();
+  }
+
+  PooledConnection getPooledConnection() {
+    return pooled;
+  }
+
+  private Connection checkConnection() throws SQLException {
+    if (!pooled.isLeasedTo(this)) {
+      throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
+    }
+    return real;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    // closing the connection of an earlier checkout is a no-op
+    pooled.release(this);
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    return checkConnection().createStatement();
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    Connection connection = checkConnection();
+    PreparedStatementCache statementCache = pooled.getStatementCache();
+    if (statementCache != null) {
+      return statementCache.prepareStatement(connection, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+    return connection.prepareStatement(sql);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql) throws SQLException {
+    return checkConnection().prepareCall(sql);
+  }
+
+  @Override
+  public String nativeSQL(String sql) throws SQLException {
+    return checkConnection().nativeSQL(sql);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    checkConnection();
+    pooled.setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    checkConnection();
+    return pooled.getAutoCommit();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    checkConnection().commit();
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    checkConnection().rollback();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return checkConnection().isClosed();
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    return checkConnection().getMetaData();
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    checkConnection();
+    pooled.setReadOnly(readOnly);
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    checkConnection();
+    return pooled.isReadOnly();
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException {
+    checkConnection().setCatalog(catalog);
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    return checkConnection().getCatalog();
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException {
+    checkConnection();
+    pooled.setTransactionIsolation(level);
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    checkConnection();
+    return pooled.getTransactionIsolation();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return checkConnection().getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    checkConnection().clearWarnings();
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+    return checkConnection().createStatement(resultSetType, resultSetConcurrency);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    Connection connection = checkConnection();
+    PreparedStatementCache statementCache = pooled.getStatementCache();
+    if (statementCache != null) {
+      return statementCache.prepareStatement(connection, sql, resultSetType, resultSetConcurrency);
+    }
+    return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    return checkConnection().prepareCall(sql, resultSetType, resultSetConcurrency);
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    return checkConnection().getTypeMap();
+  }
+
+  @Override
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    checkConnection().setTypeMap(map);
+  }
+
+  @Override
+  public void setHoldability(int holdability) throws SQLException {
+    checkConnection().setHoldability(holdability);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    return checkConnection().getHoldability();
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    return checkConnection().setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint(String name) throws SQLException {
+    return checkConnection().setSavepoint(name);
+  }
+
+  @Override
+  public void rollback(Savepoint savepoint) throws SQLException {
+    checkConnection().rollback(savepoint);
+  }
+
+  @Override
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+    checkConnection().releaseSavepoint(savepoint);
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    return checkConnection().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    return checkConnection().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    return checkConnection().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    return checkConnection().prepareStatement(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    return checkConnection().prepareStatement(sql, columnIndexes);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    return checkConnection().prepareStatement(sql, columnNames);
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    return checkConnection().createClob();
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    return checkConnection().createBlob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    return checkConnection().createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    return checkConnection().createSQLXML();
+  }
+
+  @Override
+  public boolean isValid(int timeout) throws SQLException {
+    return checkConnection().isValid(timeout);
+  }
+
+  @Override
+  public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    checkClientInfoConnection().setClientInfo(name, value);
+  }
+
+  @Override
+  public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    checkClientInfoConnection().setClientInfo(properties);
+  }
+
+  private Connection checkClientInfoConnection() throws SQLClientInfoException {
+    if (!pooled.isLeasedTo(this)) {
+      throw new SQLClientInfoException("Error accessing PooledConnection. Connection is invalid.",
+          Collections.<String, ClientInfoStatus>emptyMap());
+    }
+    return real;
+  }
+
+  @Override
+  public String getClientInfo(String name) throws SQLException {
+    return checkConnection().getClientInfo(name);
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    return checkConnection().getClientInfo();
+  }
+
+  @Override
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+    return checkConnection().createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+    return checkConnection().createStruct(typeName, attributes);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return checkConnection().unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return checkConnection().isWrapperFor(iface);
+  }
+
+  // JDBC 4.1 methods are called reflectively so the driver may still be a JDBC 4.0 one
+
+  // @Override only valid jdk7+
+  public void setSchema(String schema) throws SQLException {
+    invokeJdbc41("setSchema", new Class<?>[] { String.class }, schema);
+  }
+
+  // @Override only valid jdk7+
+  public String getSchema() throws SQLException {
+    return (String) invokeJdbc41("getSchema", new Class<?>[0]);
+  }
+
+  // @Override only valid jdk7+
+  public void abort(Executor executor) throws SQLException {
+    invokeJdbc41("abort", new Class<?>[] { Executor.class }, executor);
+  }
+
+  // @Override only valid jdk7+
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    invokeJdbc41("setNetworkTimeout", new Class<?>[] { Executor.class, int.class }, executor, milliseconds);
+  }
+
+  // @Override only valid jdk7+
+  public int getNetworkTimeout() throws SQLException {
+    return (Integer) invokeJdbc41("getNetworkTimeout", new Class<?>[0]);
+  }
+
+  private Object invokeJdbc41(String name, Class<?>[] parameterTypes, Object... args) throws SQLException {
+    Connection connection = checkConnection();
+    try {
+      Method method = Connection.class.getMethod(name, parameterTypes);
+      return method.invoke(connection, args);
+    } catch (NoSuchMethodException e) {
+      throw new SQLException("The driver does not support Connection." + name + "().", e);
+    } catch (Exception e) {
+      Throwable cause = ExceptionUtil.unwrapThrowable(e);
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      throw new SQLException("Error calling Connection." + name + "(). Cause: " + cause, cause);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return real.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return real.equals(obj);
+  }
+
+  @Override
+  public String toString() {
+    return real.toString();
+  }
+
+}
@@ -0,0 +1,105 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Periodically runs the maintenance of a {@link PooledDataSource} on a shared daemon thread.
+ * <p>
+ * Only a weak reference to the data source is held, so a scheduled pool can still be garbage collected;
+ * the task cancels itself once that happens.
+ */
+class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private static final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private volatile ScheduledFuture<?> future;
+
+  private PoolHousekeeper(PooledDataSource dataSource) {
+    this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+  }
+
+  /*
+   * Starts maintaining a pool right away and then every period
+   *
+   * @param dataSource - the pool to maintain
+   * @param period - milliseconds between two runs
+   * @return the housekeeper, to cancel it later
+   */
+  static PoolHousekeeper start(PooledDataSource dataSource, long period) {
+    PoolHousekeeper housekeeper = new PoolHousekeeper(dataSource);
+    housekeeper.future = scheduler.scheduleWithFixedDelay(housekeeper, 0, period, TimeUnit.MILLISECONDS);
+    return housekeeper;
+  }
+
+  /*
+   * Runs the maintenance of a pool once on the housekeeping thread and waits for it to end.
+   * Runs are serialized, so any run that was already due has ended as well.
+   *
+   * @param dataSource - the pool to maintain
+   */
+  static void runNow(PooledDataSource dataSource) throws InterruptedException {
+    try {
+      scheduler.submit(new PoolHousekeeper(dataSource)).get();
+    } catch (ExecutionException e) {
+      // run() never throws
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  void cancel() {
+    ScheduledFuture<?> scheduled = future;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource pool = dataSource.get();
+    if (pool == null) {
+      cancel();
+      return;
+    }
+    try {
+      pool.housekeep();
+    } catch (Throwable t) {
+      // never let an exception stop the schedule
+      log.warn("Pool housekeeping failed. Cause: " + t);
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Receives the timings measured by a {@link PooledDataSource}, for example to feed an external metrics library.
+ * <p>
+ * Methods are called on the thread that did the work, often a request thread, and must return quickly.
+ * All times are in nanoseconds.
+ *
+ * @see PooledDataSource#addMetricsListener(PoolMetricsListener)
+ */
+public interface PoolMetricsListener {
+
+  /**
+   * A connection was handed out.
+   *
+   * @param nanos the time the caller waited for it, including creation and validation
+   */
+  void connectionRequested(long nanos);
+
+  /**
+   * A request waited for a connection to be returned because the pool was exhausted.
+   * Called once per wait, so a request may wait more than once.
+   *
+   * @param nanos the time spent waiting only
+   */
+  void connectionWaited(long nanos);
+
+  /**
+   * A connection was returned to the pool or claimed back because it was overdue.
+   *
+   * @param nanos the time it was checked out
+   */
+  void connectionReturned(long nanos);
+
+  /**
+   * A physical connection was opened.
+   *
+   * @param nanos the time it took to open it
+   */
+  void connectionCreated(long nanos);
+
+  /**
+   * A connection was checked with a round trip to the database.
+   *
+   * @param nanos the time the check took
+   * @param valid whether the connection passed
+   */
+  void connectionValidated(long nanos, boolean valid);
+
+}
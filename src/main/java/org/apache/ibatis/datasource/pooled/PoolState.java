@@ -15,75 +15,148 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Clinton Begin
  */
-public class PoolState {
+public class PoolState implements PoolStateMXBean {
 
   protected PooledDataSource dataSource;
 
-  protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
-  protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
-  protected long requestCount = 0;
-  protected long accumulatedRequestTime = 0;
-  protected long accumulatedCheckoutTime = 0;
-  protected long claimedOverdueConnectionCount = 0;
-  protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
-  protected long accumulatedWaitTime = 0;
-  protected long hadToWaitCount = 0;
-  protected long badConnectionCount = 0;
+  protected final ConnectionBag connections = new ConnectionBag();
+  protected final AtomicLong requestCount = new AtomicLong();
+  protected final AtomicLong accumulatedRequestTime = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTime = new AtomicLong();
+  protected final AtomicLong claimedOverdueConnectionCount = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTimeOfOverdueConnections = new AtomicLong();
+  protected final AtomicLong accumulatedWaitTime = new AtomicLong();
+  protected final AtomicLong hadToWaitCount = new AtomicLong();
+  protected final AtomicLong badConnectionCount = new AtomicLong();
+  protected final AtomicLong leakedConnectionCount = new AtomicLong();
+  protected final LatencyHistogram requestTimes = new LatencyHistogram();
+  protected final LatencyHistogram waitTimes = new LatencyHistogram();
+  protected final LatencyHistogram checkoutTimes = new LatencyHistogram();
+  protected final LatencyHistogram creationTimes = new LatencyHistogram();
+  protected final LatencyHistogram validationTimes = new LatencyHistogram();
+  protected final CopyOnWriteArrayList<PoolMetricsListener> listeners = new CopyOnWriteArrayList<PoolMetricsListener>();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  public long getRequestCount() {
+    return requestCount.get();
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getAverageRequestTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedRequestTime.get() / requests;
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCount.get();
+    return waits == 0 ? 0 : accumulatedWaitTime.get() / waits;
 
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  public long getHadToWaitCount() {
+    return hadToWaitCount.get();
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public long getBadConnectionCount() {
+    return badConnectionCount.get();
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  public long getLeakedConnectionCount() {
+    return leakedConnectionCount.get();
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.get();
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueConnectionCount.get();
+    return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.get() / claimed;
   }
 
+  public long getAverageCheckoutTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedCheckoutTime.get() / requests;
+  }
+
+
+  public int getIdleConnectionCount() {
+    return connections.getIdleCount();
+  }
+
+  public int getActiveConnectionCount() {
+    return connections.getCount(ConnectionBag.STATE_IN_USE);
+  }
+
+  public int getWaitingThreadCount() {
+    return connections.getWaitingThreadCount();
+  }
+
+  public LatencySnapshot getRequestTimes() {
+    return requestTimes.snapshot();
+  }
+
+  public LatencySnapshot getWaitTimes() {
+    return waitTimes.snapshot();
+  }
+
+  public LatencySnapshot getCheckoutTimes() {
+    return checkoutTimes.snapshot();
+  }
+
+  public LatencySnapshot getCreationTimes() {
+    return creationTimes.snapshot();
+  }
+
+  public LatencySnapshot getValidationTimes() {
+    return validationTimes.snapshot();
+  }
+
+  void connectionRequested(long nanos) {
+    requestTimes.record(nanos);
+    for (PoolMetricsListener listener : listeners) {
+      listener.connectionRequested(nanos);
+    }
+  }
+
+  void connectionWaited(long nanos) {
+    waitTimes.record(nanos);
+    for (PoolMetricsListener listener : listeners) {
+      listener.connectionWaited(nanos);
+    }
+  }
+
+  void connectionReturned(long nanos) {
+    checkoutTimes.record(nanos);
+    for (PoolMetricsListener listener : listeners) {
+      listener.connectionReturned(nanos);
+    }
+  }
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  void connectionCreated(long nanos) {
+    creationTimes.record(nanos);
+    for (PoolMetricsListener listener : listeners) {
+      listener.connectionCreated(nanos);
+    }
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  void connectionValidated(long nanos, boolean valid) {
+    validationTimes.record(nanos);
+    for (PoolMetricsListener listener : listeners) {
+      listener.connectionValidated(nanos, valid);
+    }
   }
 
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -92,14 +165,22 @@ public class PoolState {
     builder.append("\n jdbcPassword                   ").append((dataSource.getPassword() == null ? "NULL" : "************"));
     builder.append("\n poolMaxActiveConnections       ").append(dataSource.poolMaximumActiveConnections);
     builder.append("\n poolMaxIdleConnections         ").append(dataSource.poolMaximumIdleConnections);
+    builder.append("\n poolMinIdleConnections         ").append(dataSource.poolMinimumIdleConnections);
+    builder.append("\n poolIdleTimeout                ").append(dataSource.poolIdleTimeout);
+    builder.append("\n poolMaxLifetime                ").append(dataSource.poolMaximumLifetime);
+    builder.append("\n poolPreparedStatementCacheSize ").append(dataSource.poolPreparedStatementCacheSize);
     builder.append("\n poolMaxCheckoutTime            ").append(dataSource.poolMaximumCheckoutTime);
     builder.append("\n poolTimeToWait                 ").append(dataSource.poolTimeToWait);
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolPingUseIsValid             ").append(dataSource.poolPingUseIsValid);
+    builder.append("\n poolPingTimeout                ").append(dataSource.poolPingTimeout);
+    builder.append("\n poolPingInBackground           ").append(dataSource.poolPingInBackground);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
+    builder.append("\n waitingThreads                 ").append(getWaitingThreadCount());
     builder.append("\n requestCount                   ").append(getRequestCount());
     builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
     builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
@@ -108,6 +189,12 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n leakedConnectionCount          ").append(getLeakedConnectionCount());
+    builder.append("\n requestTimes                   ").append(getRequestTimes());
+    builder.append("\n waitTimes                      ").append(getWaitTimes());
+    builder.append("\n checkoutTimes                  ").append(getCheckoutTimes());
+    builder.append("\n creationTimes                  ").append(getCreationTimes());
+    builder.append("\n validationTimes                ").append(getValidationTimes());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -15,31 +15,43 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
-
-import org.apache.ibatis.reflection.ExceptionUtil;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * A physical connection owned by a {@link PooledDataSource}.
+ * <p>
+ * The same instance stays in the pool for the life of the physical connection. Every checkout hands out
+ * a fresh {@link LeasedConnection}, and only the one of the current checkout may use or close the connection,
+ * so a stale reference kept after close cannot reach a connection that was handed to somebody else.
+ *
  * @author Clinton Begin
  */
-class PooledConnection implements InvocationHandler {
+class PooledConnection {
 
-  private static final String CLOSE = "close";
-  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
   private int hashCode = 0;
   private PooledDataSource dataSource;
   private Connection realConnection;
-  private Connection proxyConnection;
-  private long checkoutTimestamp;
-  private long createdTimestamp;
-  private long lastUsedTimestamp;
-  private int connectionTypeCode;
-  private boolean valid;
+  private final AtomicReference<Connection> proxyConnection = new AtomicReference<Connection>();
+  private final AtomicInteger state = new AtomicInteger(ConnectionBag.STATE_NOT_IN_USE);
+  private volatile long checkoutTimestamp;
+  private volatile long createdTimestamp;
+  private volatile long lastUsedTimestamp;
+  private volatile int connectionTypeCode;
+  private volatile boolean valid;
+  private int checkoutCount;
+  private volatile String checkoutThread;
+  private volatile Throwable checkoutTrace;
+  private volatile boolean leakReported;
+  private final PreparedStatementCache statementCache;
+
+  // state of the physical connection as last read or set through the pool, null while unknown
+  private volatile Boolean autoCommit;
+  private volatile Integer transactionIsolation;
+  private volatile Boolean readOnly;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -54,7 +66,204 @@ class PooledConnection implements InvocationHandler {
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
     this.valid = true;
-    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+    this.statementCache = dataSource.poolPreparedStatementCacheSize > 0
+        ? new PreparedStatementCache(dataSource.poolPreparedStatementCacheSize) : null;
+  }
+
+  /*
+   * Starts a new checkout, replacing the connection handed out for any previous one
+   *
+   * @param captureTrace - whether to remember the stack of the calling thread for leak reports
+   * @return The connection to hand out for this checkout
+   */
+  public Connection lease(boolean captureTrace) {
+    checkoutCount++;
+    checkoutThread = Thread.currentThread().getName();
+    checkoutTrace = captureTrace ? new Throwable() : null;
+    leakReported = false;
+    Connection proxy = new LeasedConnection(this);
+    proxyConnection.set(proxy);
+    return proxy;
+  }
+
+  /*
+   * Checks if a connection handed out by lease belongs to the current checkout
+   *
+   * @param proxy - the connection handed out
+   * @return True if it may still be used
+   */
+  boolean isLeasedTo(Connection proxy) {
+    return valid && proxyConnection.get() == proxy;
+  }
+
+  /*
+   * Ends a checkout and returns the connection to the pool, unless the checkout already ended
+   *
+   * @param proxy - the connection handed out for the checkout
+   */
+  void release(Connection proxy) throws SQLException {
+    if (proxyConnection.compareAndSet(proxy, null)) {
+      dataSource.pushConnection(this);
+    }
+  }
+
+  /*
+   * Ends the current checkout, whoever holds it. Only one caller can win for a given checkout.
+   *
+   * @return True if a checkout was ended by this call
+   */
+  public boolean revoke() {
+    Connection proxy = proxyConnection.get();
+    return proxy != null && proxyConnection.compareAndSet(proxy, null);
+  }
+
+  /*
+   * Getter for the number of times this connection has been checked out
+   *
+   * @return the number of checkouts
+   */
+  public int getCheckoutCount() {
+    return checkoutCount;
+  }
+
+  /*
+   * Getter for the name of the thread holding the current checkout
+   *
+   * @return the thread name
+   */
+  public String getCheckoutThread() {
+    return checkoutThread;
+  }
+
+  /*
+   * Getter for the stack that started the current checkout, if it was captured
+   *
+   * @return the stack trace holder, or null
+   */
+  public Throwable getCheckoutTrace() {
+    return checkoutTrace;
+  }
+
+  /*
+   * Marks the current checkout as reported leaked
+   *
+   * @return True if it had not been reported yet
+   */
+  public boolean markLeakReported() {
+    if (leakReported) {
+      return false;
+    }
+    leakReported = true;
+    return true;
+  }
+
+  /*
+   * Getter for the cache of prepared statements
+   *
+   * @return the cache, or null if statements are not cached
+   */
+  PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Gets the autocommit mode, asking the driver only if it is not known yet
+   *
+   * @return the autocommit mode of the physical connection
+   */
+  boolean getAutoCommit() throws SQLException {
+    Boolean known = autoCommit;
+    if (known == null) {
+      known = realConnection.getAutoCommit();
+      autoCommit = known;
+    }
+    return known;
+  }
+
+  /*
+   * Sets the autocommit mode, skipping the driver if the connection is known to be in that mode already
+   *
+   * @param autoCommit - the autocommit mode
+   */
+  void setAutoCommit(boolean autoCommit) throws SQLException {
+    Boolean known = this.autoCommit;
+    if (known == null || known.booleanValue() != autoCommit) {
+      this.autoCommit = null;
+      realConnection.setAutoCommit(autoCommit);
+      this.autoCommit = autoCommit;
+    }
+  }
+
+  /*
+   * Gets the transaction isolation level, asking the driver only if it is not known yet
+   *
+   * @return the transaction isolation level of the physical connection
+   */
+  int getTransactionIsolation() throws SQLException {
+    Integer known = transactionIsolation;
+    if (known == null) {
+      known = realConnection.getTransactionIsolation();
+      transactionIsolation = known;
+    }
+    return known;
+  }
+
+  /*
+   * Sets the transaction isolation level, skipping the driver if the connection is known to be at that level already
+   *
+   * @param level - the transaction isolation level
+   */
+  void setTransactionIsolation(int level) throws SQLException {
+    Integer known = transactionIsolation;
+    if (known == null || known.intValue() != level) {
+      transactionIsolation = null;
+      realConnection.setTransactionIsolation(level);
+      transactionIsolation = level;
+    }
+  }
+
+  /*
+   * Gets the read-only mode, asking the driver only if it is not known yet
+   *
+   * @return the read-only mode of the physical connection
+   */
+  boolean isReadOnly() throws SQLException {
+    Boolean known = readOnly;
+    if (known == null) {
+      known = realConnection.isReadOnly();
+      readOnly = known;
+    }
+    return known;
+  }
+
+  /*
+   * Sets the read-only mode, skipping the driver if the connection is known to be in that mode already
+   *
+   * @param readOnly - the read-only mode
+   */
+  void setReadOnly(boolean readOnly) throws SQLException {
+    Boolean known = this.readOnly;
+    if (known == null || known.booleanValue() != readOnly) {
+      this.readOnly = null;
+      realConnection.setReadOnly(readOnly);
+      this.readOnly = readOnly;
+    }
+  }
+
+  int getState() {
+    return state.get();
+  }
+
+  void setState(int newState) {
+    state.set(newState);
+  }
+
+  boolean compareAndSetState(int expect, int update) {
+    return state.compareAndSet(expect, update);
+  }
+
+  int getAndSetState(int newState) {
+    return state.getAndSet(newState);
   }
 
   /*
@@ -62,6 +271,10 @@ class PooledConnection implements InvocationHandler {
    */
   public void invalidate() {
     valid = false;
+    proxyConnection.set(null);
+    if (statementCache != null) {
+      statementCache.clear();
+    }
   }
 
   /*
@@ -83,12 +296,12 @@ class PooledConnection implements InvocationHandler {
   }
 
   /*
-   * Getter for the proxy for the connection
+   * Getter for the proxy of the current checkout
    *
-   * @return The proxy
+   * @return The proxy (or null if the connection is not checked out)
    */
   public Connection getProxyConnection() {
-    return proxyConnection;
+    return proxyConnection.get();
   }
 
   /*
@@ -221,38 +434,4 @@ class PooledConnection implements InvocationHandler {
     }
   }
 
-  /*
-   * Required for InvocationHandler implementation.
-   *
-   * @param proxy  - not used
-   * @param method - the method to be executed
-   * @param args   - the parameters to be passed to the method
-   * @see java.lang.reflect.InvocationHandler#invoke(Object, java.lang.reflect.Method, Object[])
-   */
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    String methodName = method.getName();
-    if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
-      dataSource.pushConnection(this);
-      return null;
-    } else {
-      try {
-        if (!Object.class.equals(method.getDeclaringClass())) {
-          // issue #579 toString() should never fail
-          // throw an SQLException instead of a Runtime
-          checkConnection();
-        }
-        return method.invoke(realConnection, args);
-      } catch (Throwable t) {
-        throw ExceptionUtil.unwrapThrowable(t);
-      }
-    }
-  }
-
-  private void checkConnection() throws SQLException {
-    if (!valid) {
-      throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
-    }
-  }
-
 }
@@ -16,16 +16,24 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
@@ -33,7 +41,11 @@ import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
 /**
- * This is a simple, synchronous, thread-safe database connection pool.
+ * This is a simple, thread-safe database connection pool.
+ * <p>
+ * Connections are checked out and returned without taking a pool-wide lock: idle connections are kept in a
+ * {@link ConnectionBag} that prefers the connections a thread returned last and hands returned connections to
+ * waiting threads in arrival order.
  *
  * @author Clinton Begin
  */
@@ -53,8 +65,25 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
-
-  private int expectedConnectionTypeCode;
+  protected boolean poolPingUseIsValid;
+  protected int poolPingTimeout = 5;
+  protected boolean poolPingInBackground;
+  protected int poolMinimumIdleConnections;
+  protected int poolIdleTimeout;
+  protected int poolMaximumLifetime;
+  protected int poolHousekeepingInterval = 30000;
+  protected int poolWarmupConnections;
+  protected int poolWarmupThreads = 4;
+  protected int poolWarmupTimeout = 10000;
+  protected int poolPreparedStatementCacheSize;
+  protected int poolLeakDetectionThreshold;
+  protected int poolLeakDetectionSampling = 100;
+  protected String poolName;
+  protected boolean poolJmxEnabled;
+
+  private volatile int expectedConnectionTypeCode;
+  private volatile PoolHousekeeper housekeeper;
+  private ObjectName registeredName;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -86,12 +115,12 @@ public class PooledDataSource implements DataSource {
 
   @Override
   public Connection getConnection() throws SQLException {
-    return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+    return popConnection(dataSource.getUsername(), dataSource.getPassword());
   }
 
   @Override
   public Connection getConnection(String username, String password) throws SQLException {
-    return popConnection(username, password).getProxyConnection();
+    return popConnection(username, password);
   }
 
   @Override
@@ -221,6 +250,164 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * Determines if connections are checked with Connection.isValid instead of the ping query.
+   *
+   * @param poolPingUseIsValid True to use the driver's own check
+   */
+  public void setPoolPingUseIsValid(boolean poolPingUseIsValid) {
+    this.poolPingUseIsValid = poolPingUseIsValid;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of seconds Connection.isValid may take
+   *
+   * @param poolPingTimeout The timeout in seconds, 0 for none
+   */
+  public void setPoolPingTimeout(int poolPingTimeout) {
+    this.poolPingTimeout = poolPingTimeout;
+    forceCloseAll();
+  }
+
+  /*
+   * Determines if idle connections are pinged by the housekeeper instead of at checkout,
+   * which then only checks that the connection is not closed.
+   *
+   * @param poolPingInBackground True to ping in the background
+   */
+  public void setPoolPingInBackground(boolean poolPingInBackground) {
+    this.poolPingInBackground = poolPingInBackground;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of idle connections the housekeeper keeps ready, up to poolMaximumActiveConnections
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    forceCloseAll();
+  }
+
+  /*
+   * If a connection has been idle for this many milliseconds, the housekeeper
+   * closes it as long as more than poolMinimumIdleConnections are idle. Zero disables it.
+   *
+   * @param poolIdleTimeout The idle time in milliseconds
+   */
+  public void setPoolIdleTimeout(int poolIdleTimeout) {
+    this.poolIdleTimeout = poolIdleTimeout;
+    forceCloseAll();
+  }
+
+  /*
+   * The maximum time a physical connection is kept open. Older idle connections are closed
+   * by the housekeeper, checked out ones when they are returned. Zero disables it.
+   *
+   * @param poolMaximumLifetime The lifetime in milliseconds
+   */
+  public void setPoolMaximumLifetime(int poolMaximumLifetime) {
+    this.poolMaximumLifetime = poolMaximumLifetime;
+    forceCloseAll();
+  }
+
+  /*
+   * The time between two runs of the housekeeper
+   *
+   * @param poolHousekeepingInterval The interval in milliseconds
+   */
+  public void setPoolHousekeepingInterval(int poolHousekeepingInterval) {
+    this.poolHousekeepingInterval = poolHousekeepingInterval;
+    stopHousekeeping();
+  }
+
+  /*
+   * The number of connections warmUp opens, up to poolMaximumIdleConnections. Zero disables warm-up.
+   *
+   * @param poolWarmupConnections The number of connections
+   */
+  public void setPoolWarmupConnections(int poolWarmupConnections) {
+    this.poolWarmupConnections = poolWarmupConnections;
+  }
+
+  /*
+   * The number of threads warmUp opens connections with
+   *
+   * @param poolWarmupThreads The number of threads
+   */
+  public void setPoolWarmupThreads(int poolWarmupThreads) {
+    this.poolWarmupThreads = poolWarmupThreads;
+  }
+
+  /*
+   * How long warmUp blocks. Connections not open by then keep opening in the background.
+   *
+   * @param poolWarmupTimeout The time in milliseconds
+   */
+  public void setPoolWarmupTimeout(int poolWarmupTimeout) {
+    this.poolWarmupTimeout = poolWarmupTimeout;
+  }
+
+  /*
+   * The number of prepared statements each pooled connection keeps open for reuse
+   * across sessions. Zero disables the cache.
+   *
+   * @param poolPreparedStatementCacheSize The number of statements per connection
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
+  /*
+   * If a connection has been checked out for this many milliseconds, the housekeeper
+   * reports it as a possible leak, once per checkout. Zero disables leak detection.
+   *
+   * @param poolLeakDetectionThreshold The time in milliseconds
+   */
+  public void setPoolLeakDetectionThreshold(int poolLeakDetectionThreshold) {
+    this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+  }
+
+  /*
+   * The stack of the borrowing thread is captured for one in this many checkouts of a connection,
+   * so that leak reports can tell where the connection was taken. Zero never captures it.
+   *
+   * @param poolLeakDetectionSampling The sampling interval
+   */
+  public void setPoolLeakDetectionSampling(int poolLeakDetectionSampling) {
+    this.poolLeakDetectionSampling = poolLeakDetectionSampling;
+  }
+
+  /*
+   * The name of the pool in JMX. Defaults to a name based on the identity of the data source.
+   *
+   * @param poolName The name
+   */
+  public void setPoolName(String poolName) {
+    this.poolName = poolName;
+    if (poolJmxEnabled) {
+      unregisterMBean();
+      registerMBean();
+    }
+  }
+
+  /*
+   * Determines if the PoolState is registered with the platform MBean server.
+   *
+   * @param poolJmxEnabled True to register it
+   */
+  public void setPoolJmxEnabled(boolean poolJmxEnabled) {
+    this.poolJmxEnabled = poolJmxEnabled;
+    if (poolJmxEnabled) {
+      registerMBean();
+    } else {
+      unregisterMBean();
+    }
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -277,33 +464,137 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public boolean isPoolPingUseIsValid() {
+    return poolPingUseIsValid;
+  }
+
+  public int getPoolPingTimeout() {
+    return poolPingTimeout;
+  }
+
+  public boolean isPoolPingInBackground() {
+    return poolPingInBackground;
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolIdleTimeout() {
+    return poolIdleTimeout;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolWarmupConnections() {
+    return poolWarmupConnections;
+  }
+
+  public int getPoolWarmupThreads() {
+    return poolWarmupThreads;
+  }
+
+  public int getPoolWarmupTimeout() {
+    return poolWarmupTimeout;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampling() {
+    return poolLeakDetectionSampling;
+  }
+
+  public String getPoolName() {
+    return poolName;
+  }
+
+  public boolean isPoolJmxEnabled() {
+    return poolJmxEnabled;
+  }
+
+  public void addMetricsListener(PoolMetricsListener listener) {
+    state.listeners.add(listener);
+  }
+
+  public void removeMetricsListener(PoolMetricsListener listener) {
+    state.listeners.remove(listener);
+  }
+
   /*
-   * Closes all active and idle connections in the pool
+   * Opens poolWarmupConnections idle connections in parallel, so the first requests after
+   * startup do not have to. Blocks for at most poolWarmupTimeout milliseconds.
    */
-  public void forceCloseAll() {
-    synchronized (state) {
-      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
-      for (int i = state.activeConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.activeConnections.remove(i - 1);
-          conn.invalidate();
-
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
+  public void warmUp() {
+    int missing = Math.min(poolWarmupConnections, poolMaximumIdleConnections) - state.connections.size();
+    if (missing > 0) {
+      final CountDownLatch latch = new CountDownLatch(missing);
+      int threads = Math.max(1, Math.min(poolWarmupThreads, missing));
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "mybatis-pool-warmup-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      for (int i = 0; i < missing; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              addIdleConnection();
+            } finally {
+              latch.countDown();
+            }
           }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
+        });
+      }
+      // threads end once the queue is drained
+      executor.shutdown();
+      try {
+        if (!latch.await(poolWarmupTimeout, TimeUnit.MILLISECONDS)) {
+          log.warn("PooledDataSource warm-up did not finish within " + poolWarmupTimeout
+              + " milliseconds, continuing in the background.");
         }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource warmed up " + state.getIdleConnectionCount() + " idle connections.");
       }
-      for (int i = state.idleConnections.size(); i > 0; i--) {
+    }
+    if (housekeeper == null && isHousekeepingEnabled()) {
+      startHousekeeping();
+    }
+  }
+
+  /*
+   * Closes all active and idle connections in the pool
+   */
+  public void forceCloseAll() {
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    for (PooledConnection conn : state.connections.values()) {
+      if (state.connections.remove(conn)) {
         try {
-          PooledConnection conn = state.idleConnections.remove(i - 1);
           conn.invalidate();
 
           Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
+          if (!conn.getAutoCommit()) {
             realConn.rollback();
           }
           realConn.close();
@@ -327,148 +618,353 @@ public class PooledDataSource implements DataSource {
 
   protected void pushConnection(PooledConnection conn) throws SQLException {
 
-    synchronized (state) {
-      state.activeConnections.remove(conn);
-      if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
-          conn.invalidate();
-          if (log.isDebugEnabled()) {
-            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
-          }
-          state.notifyAll();
-        } else {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          conn.getRealConnection().close();
-          if (log.isDebugEnabled()) {
-            log.debug("Closed connection " + conn.getRealHashCode() + ".");
-          }
-          conn.invalidate();
+    if (conn.isValid()) {
+      long checkoutTime = conn.getCheckoutTime();
+      state.accumulatedCheckoutTime.addAndGet(checkoutTime);
+      state.connectionReturned(TimeUnit.MILLISECONDS.toNanos(checkoutTime));
+      try {
+        if (!conn.getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+      } catch (SQLException e) {
+        discardConnection(conn);
+        throw e;
+      }
+      if (state.getIdleConnectionCount() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+          && !isExpired(conn)) {
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        state.connections.requite(conn);
+        if (log.isDebugEnabled()) {
+          log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
         }
       } else {
+        state.connections.remove(conn);
+        conn.invalidate();
+        conn.getRealConnection().close();
         if (log.isDebugEnabled()) {
-          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+          log.debug("Closed connection " + conn.getRealHashCode() + ".");
         }
-        state.badConnectionCount++;
       }
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.incrementAndGet();
+      discardConnection(conn);
     }
   }
 
-  private PooledConnection popConnection(String username, String password) throws SQLException {
+  private Connection popConnection(String username, String password) throws SQLException {
     boolean countedWait = false;
     PooledConnection conn = null;
-    long t = System.currentTimeMillis();
+    long t = System.nanoTime();
     int localBadConnectionCount = 0;
+    ConnectionBag connections = state.connections;
+    if (housekeeper == null && isHousekeepingEnabled()) {
+      startHousekeeping();
+    }
 
     while (conn == null) {
-      synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
+      try {
+        conn = connections.borrow(0, TimeUnit.MILLISECONDS);
+        if (conn != null) {
           // Pool has available connection
-          conn = state.idleConnections.remove(0);
           if (log.isDebugEnabled()) {
             log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
           }
+        } else if (connections.reserveCapacity(poolMaximumActiveConnections)) {
+          // Can create new connection
+          boolean added = false;
+          try {
+            conn = openConnection();
+            connections.add(conn);
+            added = true;
+          } finally {
+            if (!added) {
+              connections.releaseCapacity();
+            }
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Created connection " + conn.getRealHashCode() + ".");
+          }
         } else {
-          // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
+          // Cannot create new connection
+          conn = claimOverdueConnection();
+          if (conn == null) {
+            // Must wait
+            if (!countedWait) {
+              state.hadToWaitCount.incrementAndGet();
+              countedWait = true;
+            }
             if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
+              log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
             }
-          } else {
-            // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              // Can claim overdue connection
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
-              state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                try {
-                  oldestActiveConnection.getRealConnection().rollback();
-                } catch (SQLException e) {
-                  log.debug("Bad connection. Could not roll back");
-                }  
-              }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
-              }
-            } else {
-              // Must wait
-              try {
-                if (!countedWait) {
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
-              }
+            long wt = System.nanoTime();
+            conn = connections.borrow(poolTimeToWait, TimeUnit.MILLISECONDS);
+            long waitTime = System.nanoTime() - wt;
+            state.accumulatedWaitTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(waitTime));
+            state.connectionWaited(waitTime);
+            if (conn != null && log.isDebugEnabled()) {
+              log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
             }
           }
         }
-        if (conn != null) {
-          if (conn.isValid()) {
-            if (!conn.getRealConnection().getAutoCommit()) {
+      } catch (InterruptedException e) {
+        break;
+      }
+      if (conn != null && isExpired(conn)) {
+        if (log.isDebugEnabled()) {
+          log.debug("Connection " + conn.getRealHashCode() + " reached its maximum lifetime, getting another connection.");
+        }
+        discardConnection(conn);
+        conn = null;
+      }
+      if (conn != null) {
+        if (conn.isValid()) {
+          try {
+            if (!conn.getAutoCommit()) {
               conn.getRealConnection().rollback();
             }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-            conn.setCheckoutTimestamp(System.currentTimeMillis());
-            conn.setLastUsedTimestamp(System.currentTimeMillis());
-            state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
-          } else {
+          } catch (SQLException e) {
+            discardConnection(conn);
+            throw e;
+          }
+          conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          Connection proxy = conn.lease(poolLeakDetectionThreshold > 0 && poolLeakDetectionSampling > 0
+              && conn.getCheckoutCount() % poolLeakDetectionSampling == 0);
+          long requestTime = System.nanoTime() - t;
+          state.requestCount.incrementAndGet();
+          state.accumulatedRequestTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(requestTime));
+          state.connectionRequested(requestTime);
+          return proxy;
+        } else {
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+          }
+          state.badConnectionCount.incrementAndGet();
+          discardConnection(conn);
+          localBadConnectionCount++;
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
             if (log.isDebugEnabled()) {
-              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
-            }
-            state.badConnectionCount++;
-            localBadConnectionCount++;
-            conn = null;
-            if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
-              if (log.isDebugEnabled()) {
-                log.debug("PooledDataSource: Could not get a good connection to the database.");
-              }
-              throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
             }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
           }
         }
       }
 
     }
 
-    if (conn == null) {
-      if (log.isDebugEnabled()) {
-        log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+    throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+  }
+
+  /*
+   * Takes the connection that has been checked out the longest away from its holder
+   * if it has been out longer than poolMaximumCheckoutTime
+   *
+   * @return The claimed connection, still in use, or null if none is overdue
+   */
+  private PooledConnection claimOverdueConnection() {
+    PooledConnection oldestActiveConnection = null;
+    long longestCheckoutTime = 0;
+    for (PooledConnection conn : state.connections.values()) {
+      // a connection without a proxy is between checkouts
+      if (conn.getState() == ConnectionBag.STATE_IN_USE && conn.getProxyConnection() != null) {
+        long checkoutTime = conn.getCheckoutTime();
+        if (checkoutTime > longestCheckoutTime) {
+          oldestActiveConnection = conn;
+          longestCheckoutTime = checkoutTime;
+        }
+      }
+    }
+    if (oldestActiveConnection == null || longestCheckoutTime <= poolMaximumCheckoutTime
+        || !oldestActiveConnection.revoke()) {
+      return null;
+    }
+    // Can claim overdue connection
+    state.claimedOverdueConnectionCount.incrementAndGet();
+    state.accumulatedCheckoutTimeOfOverdueConnections.addAndGet(longestCheckoutTime);
+    state.accumulatedCheckoutTime.addAndGet(longestCheckoutTime);
+    state.connectionReturned(TimeUnit.MILLISECONDS.toNanos(longestCheckoutTime));
+    try {
+      if (!oldestActiveConnection.getAutoCommit()) {
+        oldestActiveConnection.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      log.debug("Bad connection. Could not roll back");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + oldestActiveConnection.getRealHashCode() + ".");
+    }
+    return oldestActiveConnection;
+  }
+
+  private boolean isExpired(PooledConnection conn) {
+    return poolMaximumLifetime > 0 && conn.getAge() > poolMaximumLifetime;
+  }
+
+  private boolean isHousekeepingEnabled() {
+    return poolMinimumIdleConnections > 0 || poolIdleTimeout > 0 || poolMaximumLifetime > 0
+        || poolPingEnabled && poolPingInBackground || poolLeakDetectionThreshold > 0;
+  }
+
+  private synchronized void startHousekeeping() {
+    if (housekeeper == null) {
+      housekeeper = PoolHousekeeper.start(this, poolHousekeepingInterval);
+    }
+  }
+
+  private synchronized void stopHousekeeping() {
+    if (housekeeper != null) {
+      housekeeper.cancel();
+      housekeeper = null;
+    }
+  }
+
+  /*
+   * Reports leaked connections, closes idle connections that timed out, outlived poolMaximumLifetime
+   * or fail the background ping and tops the pool up to poolMinimumIdleConnections. Called by the housekeeper, never on a request thread.
+   */
+  void housekeep() {
+    ConnectionBag connections = state.connections;
+    int idle = state.getIdleConnectionCount();
+    for (PooledConnection conn : connections.values()) {
+      if (poolLeakDetectionThreshold > 0 && conn.getState() == ConnectionBag.STATE_IN_USE) {
+        detectLeak(conn);
+      } else if (connections.reserve(conn)) {
+        boolean expired = isExpired(conn);
+        if (expired || poolIdleTimeout > 0 && conn.getTimeElapsedSinceLastUse() > poolIdleTimeout && idle > poolMinimumIdleConnections) {
+          if (log.isDebugEnabled()) {
+            log.debug("Closed " + (expired ? "expired" : "idle") + " connection " + conn.getRealHashCode() + ".");
+          }
+          discardConnection(conn);
+          idle--;
+        } else if (poolPingInBackground && isDueForPing(conn) && !validateConnection(conn)) {
+          state.badConnectionCount.incrementAndGet();
+          discardConnection(conn);
+          idle--;
+        } else {
+          connections.unreserve(conn);
+        }
       }
-      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
     }
 
+    int missing = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections) - state.getIdleConnectionCount();
+    for (int i = 0; i < missing; i++) {
+      if (!addIdleConnection()) {
+        break;
+      }
+    }
+  }
+
+  private void detectLeak(PooledConnection conn) {
+    // a connection without a proxy is between checkouts
+    if (conn.getProxyConnection() == null) {
+      return;
+    }
+    long checkoutTime = conn.getCheckoutTime();
+    if (checkoutTime > poolLeakDetectionThreshold && conn.markLeakReported()) {
+      state.leakedConnectionCount.incrementAndGet();
+      StringBuilder message = new StringBuilder();
+      message.append("Connection ").append(conn.getRealHashCode()).append(" has been checked out by thread ")
+          .append(conn.getCheckoutThread()).append(" for ").append(checkoutTime).append(" milliseconds, it may have leaked.");
+      Throwable trace = conn.getCheckoutTrace();
+      if (trace == null) {
+        message.append(" The checkout stack was not sampled, see poolLeakDetectionSampling.");
+      } else {
+        message.append(" It was checked out at:");
+        for (StackTraceElement element : trace.getStackTrace()) {
+          message.append("\n\tat ").append(element);
+        }
+      }
+      log.warn(message.toString());
+    }
+  }
+
+  /*
+   * Opens a new connection and makes it available, unless the pool is full
+   *
+   * @return True if a connection was added
+   */
+  private boolean addIdleConnection() {
+    ConnectionBag connections = state.connections;
+    if (!connections.reserveCapacity(poolMaximumActiveConnections)) {
+      return false;
+    }
+    PooledConnection conn;
+    boolean added = false;
+    try {
+      conn = openConnection();
+      conn.setConnectionTypeCode(expectedConnectionTypeCode);
+      connections.add(conn);
+      added = true;
+    } catch (SQLException e) {
+      log.warn("Could not create an idle connection. Cause: " + e);
+      return false;
+    } finally {
+      if (!added) {
+        connections.releaseCapacity();
+      }
+    }
+    connections.requite(conn);
+    if (log.isDebugEnabled()) {
+      log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+    }
+    return true;
+  }
+
+  private PooledConnection openConnection() throws SQLException {
+    long start = System.nanoTime();
+    PooledConnection conn = new PooledConnection(dataSource.getConnection(), this);
+    state.connectionCreated(System.nanoTime() - start);
     return conn;
   }
 
+  private synchronized void registerMBean() {
+    if (registeredName != null) {
+      return;
+    }
+    String name = poolName != null ? poolName : "PooledDataSource@" + Integer.toHexString(System.identityHashCode(this));
+    try {
+      ObjectName objectName = new ObjectName("org.apache.ibatis.datasource.pooled:type=PoolState,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(state, objectName);
+      registeredName = objectName;
+    } catch (JMException e) {
+      log.warn("Could not register pool " + name + " with JMX. Cause: " + e);
+    }
+  }
+
+  private synchronized void unregisterMBean() {
+    if (registeredName == null) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(registeredName)) {
+        server.unregisterMBean(registeredName);
+      }
+    } catch (JMException e) {
+      log.warn("Could not unregister " + registeredName + " from JMX. Cause: " + e);
+    }
+    registeredName = null;
+  }
+
+  private void discardConnection(PooledConnection conn) {
+    state.connections.remove(conn);
+    conn.invalidate();
+    try {
+      conn.getRealConnection().close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -487,38 +983,60 @@ public class PooledDataSource implements DataSource {
       result = false;
     }
 
-    if (result) {
-      if (poolPingEnabled) {
-        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-          try {
-            if (log.isDebugEnabled()) {
-              log.debug("Testing connection " + conn.getRealHashCode() + " ...");
-            }
-            Connection realConn = conn.getRealConnection();
-            Statement statement = realConn.createStatement();
-            ResultSet rs = statement.executeQuery(poolPingQuery);
-            rs.close();
-            statement.close();
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
-            }
-            result = true;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
-            }
-          } catch (Exception e) {
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-            try {
-              conn.getRealConnection().close();
-            } catch (Exception e2) {
-              //ignore
-            }
-            result = false;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            }
-          }
+    if (result && !poolPingInBackground && isDueForPing(conn)) {
+      result = validateConnection(conn);
+    }
+    return result;
+  }
+
+  private boolean isDueForPing(PooledConnection conn) {
+    return poolPingEnabled && poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor;
+  }
+
+  /*
+   * Makes a round trip to the database, with Connection.isValid or the ping query
+   *
+   * @param conn - the connection to check
+   * @return True if the connection answered
+   */
+  private boolean validateConnection(PooledConnection conn) {
+    boolean result;
+    long start = System.nanoTime();
+    try {
+      if (log.isDebugEnabled()) {
+        log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+      }
+      Connection realConn = conn.getRealConnection();
+      if (poolPingUseIsValid) {
+        result = realConn.isValid(poolPingTimeout);
+      } else {
+        Statement statement = realConn.createStatement();
+        ResultSet rs = statement.executeQuery(poolPingQuery);
+        rs.close();
+        statement.close();
+        if (!conn.getAutoCommit()) {
+          realConn.rollback();
         }
+        result = true;
+      }
+    } catch (Exception e) {
+      log.warn("Execution of " + (poolPingUseIsValid ? "Connection.isValid" : "ping query '" + poolPingQuery + "'")
+          + " failed: " + e.getMessage());
+      result = false;
+    }
+    state.connectionValidated(System.nanoTime() - start, result);
+    if (result) {
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+      }
+    } else {
+      try {
+        conn.getRealConnection().close();
+      } catch (Exception e2) {
+        //ignore
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD.");
       }
     }
     return result;
@@ -531,11 +1049,8 @@ public class PooledDataSource implements DataSource {
    * @return The 'real' connection
    */
   public static Connection unwrapConnection(Connection conn) {
-    if (Proxy.isProxyClass(conn.getClass())) {
-      InvocationHandler handler = Proxy.getInvocationHandler(conn);
-      if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
-      }
+    if (conn instanceof LeasedConnection) {
+      return ((LeasedConnection) conn).getPooledConnection().getRealConnection();
     }
     return conn;
   }
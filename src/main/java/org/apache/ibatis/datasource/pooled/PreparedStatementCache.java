@@ -0,0 +1,237 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of the prepared statements of one pooled physical connection.
+ * <p>
+ * Statements handed out by the cache are {@link CachedStatement}s whose {@code close()} returns the statement to the cache
+ * instead of closing it, so the same SQL is not prepared again by the next session that gets the connection.
+ * A statement is in the cache only while nobody uses it; preparing SQL that is already in use prepares a
+ * second statement. Statements are really closed when evicted or when the physical connection is retired.
+ * A returned statement has the result sets it gave out closed, its parameters, batch and warnings cleared and the
+ * fetch size, max rows, query timeout and fetch direction it was prepared with restored, so the next
+ * borrower does not inherit the settings of the previous one.
+ */
+class PreparedStatementCache {
+
+  private final int size;
+  private final Map<StatementKey, PooledStatement> statements = new LinkedHashMap<StatementKey, PooledStatement>(16, 0.75f, true);
+  private long hits;
+  private long misses;
+
+  PreparedStatementCache(int size) {
+    this.size = size;
+  }
+
+  /*
+   * Gets a cached statement or prepares a new one
+   *
+   * @param connection - the physical connection
+   * @param sql - the SQL to prepare
+   * @param resultSetType - the result set type
+   * @param resultSetConcurrency - the result set concurrency
+   * @return A statement whose close() gives it back to this cache
+   */
+  PreparedStatement prepareStatement(Connection connection, String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    StatementKey key = new StatementKey(sql, resultSetType, resultSetConcurrency);
+    PooledStatement statement;
+    synchronized (this) {
+      statement = statements.remove(key);
+      if (statement != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+    if (statement == null) {
+      PreparedStatement prepared = connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      try {
+        statement = new PooledStatement(key, prepared);
+      } catch (SQLException e) {
+        closeQuietly(prepared);
+        throw e;
+      }
+    }
+    return new CachedStatement(this, statement);
+  }
+
+  void release(PooledStatement statement) {
+    StatementKey key = statement.key;
+    try {
+      statement.reset();
+    } catch (SQLException e) {
+      closeQuietly(statement.statement);
+      return;
+    }
+    PooledStatement evicted = null;
+    synchronized (this) {
+      if (statements.containsKey(key)) {
+        // another statement with the same SQL got here first
+        evicted = statement;
+      } else {
+        statements.put(key, statement);
+        if (statements.size() > size) {
+          Iterator<PooledStatement> eldest = statements.values().iterator();
+          evicted = eldest.next();
+          eldest.remove();
+        }
+      }
+    }
+    if (evicted != null) {
+      closeQuietly(evicted.statement);
+    }
+  }
+
+  /*
+   * Closes every cached statement. Statements in use are closed by their holder.
+   */
+  void clear() {
+    List<PooledStatement> closing;
+    synchronized (this) {
+      closing = new ArrayList<PooledStatement>(statements.values());
+      statements.clear();
+    }
+    for (PooledStatement statement : closing) {
+      closeQuietly(statement.statement);
+    }
+  }
+
+  synchronized int getSize() {
+    return statements.size();
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /*
+   * A cached statement, the settings it was prepared with and the result sets it gave out since
+   */
+  static final class PooledStatement {
+
+    private final StatementKey key;
+    private final PreparedStatement statement;
+    // the driver's getResultSet() may not return the result set of executeQuery()
+    private final List<ResultSet> resultSets = new ArrayList<ResultSet>();
+    private final int fetchSize;
+    private final int maxRows;
+    private final int queryTimeout;
+    private final int fetchDirection;
+
+    PooledStatement(StatementKey key, PreparedStatement statement) throws SQLException {
+      this.key = key;
+      this.statement = statement;
+      this.fetchSize = statement.getFetchSize();
+      this.maxRows = statement.getMaxRows();
+      this.queryTimeout = statement.getQueryTimeout();
+      this.fetchDirection = statement.getFetchDirection();
+    }
+
+    PreparedStatement getStatement() {
+      return statement;
+    }
+
+    void opened(ResultSet resultSet) {
+      if (resultSet != null && (resultSets.isEmpty() || resultSets.get(resultSets.size() - 1) != resultSet)) {
+        resultSets.add(resultSet);
+      }
+    }
+
+    void reset() throws SQLException {
+      try {
+        for (ResultSet resultSet : resultSets) {
+          resultSet.close();
+        }
+      } finally {
+        resultSets.clear();
+      }
+      statement.clearParameters();
+      statement.clearBatch();
+      statement.clearWarnings();
+      if (statement.getFetchSize() != fetchSize) {
+        statement.setFetchSize(fetchSize);
+      }
+      if (statement.getMaxRows() != maxRows) {
+        statement.setMaxRows(maxRows);
+      }
+      if (statement.getQueryTimeout() != queryTimeout) {
+        statement.setQueryTimeout(queryTimeout);
+      }
+      if (statement.getFetchDirection() != fetchDirection) {
+        statement.setFetchDirection(fetchDirection);
+      }
+    }
+
+  }
+
+  private static final class StatementKey {
+
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int hashCode;
+
+    StatementKey(String sql, int resultSetType, int resultSetConcurrency) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+      this.hashCode = (sql.hashCode() * 31 + resultSetType) * 31 + resultSetConcurrency;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey other = (StatementKey) obj;
+      return resultSetType == other.resultSetType && resultSetConcurrency == other.resultSetConcurrency
+          && sql.equals(other.sql);
+    }
+
+  }
+
+}
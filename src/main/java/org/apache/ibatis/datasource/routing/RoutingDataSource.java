@@ -0,0 +1,206 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * A data source that hands out connections of read replicas for selects and of the primary for everything else.
+ * <p>
+ * The executor tells which kind of statement is about to open a connection, so a transaction runs on the data
+ * source chosen for its first statement: a session that starts with a select reads from a replica, and one that
+ * starts with an insert, update or delete reads its own writes from the primary. A session on a replica gives
+ * its connection back on commit, on rollback and before its first write, which moves it to the primary.
+ * Connections requested without a statement, while a write is in progress, or for a statement type other than
+ * select, come from the primary.
+ */
+public class RoutingDataSource implements DataSource {
+
+  private static final ThreadLocal<SqlCommandType> commandType = new ThreadLocal<SqlCommandType>();
+
+  private final DataSource primary;
+  private final List<DataSource> replicas;
+  private final LoadBalance loadBalance;
+  private final AtomicInteger nextReplica = new AtomicInteger();
+
+  public RoutingDataSource(DataSource primary, List<DataSource> replicas) {
+    this(primary, replicas, LoadBalance.ROUND_ROBIN);
+  }
+
+  public RoutingDataSource(DataSource primary, List<DataSource> replicas, LoadBalance loadBalance) {
+    if (primary == null) {
+      throw new IllegalArgumentException("The primary data source is required.");
+    }
+    this.primary = primary;
+    this.replicas = replicas == null ? Collections.<DataSource>emptyList()
+        : Collections.unmodifiableList(new ArrayList<DataSource>(replicas));
+    this.loadBalance = loadBalance == null ? LoadBalance.ROUND_ROBIN : loadBalance;
+  }
+
+  /*
+   * Declares the kind of statement the connections requested by the current thread are for
+   *
+   * @param type - the statement type, or null to route to the primary
+   * @return the type declared before, to restore it afterwards
+   */
+  public static SqlCommandType route(SqlCommandType type) {
+    SqlCommandType previous = commandType.get();
+    restore(type);
+    return previous;
+  }
+
+  /*
+   * Tells the kind of statement the connections requested by the current thread are for
+   *
+   * @return the statement type, or null if none was declared
+   */
+  public static SqlCommandType current() {
+    return commandType.get();
+  }
+
+  /*
+   * Restores the statement type returned by route
+   *
+   * @param previous - the type to restore
+   */
+  public static void restore(SqlCommandType previous) {
+    if (previous == null) {
+      commandType.remove();
+    } else {
+      commandType.set(previous);
+    }
+  }
+
+  /*
+   * Tells whether connections for a kind of statement come from a replica
+   *
+   * @param type - the statement type
+   * @return True if they come from a replica
+   */
+  public boolean routesToReplica(SqlCommandType type) {
+    return type == SqlCommandType.SELECT && !replicas.isEmpty();
+  }
+
+  public DataSource getPrimary() {
+    return primary;
+  }
+
+  public List<DataSource> getReplicas() {
+    return replicas;
+  }
+
+  public LoadBalance getLoadBalance() {
+    return loadBalance;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return determineDataSource().getConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return determineDataSource().getConnection(username, password);
+  }
+
+  private DataSource determineDataSource() {
+    return routesToReplica(commandType.get()) ? selectReplica() : primary;
+  }
+
+  private DataSource selectReplica() {
+    int size = replicas.size();
+    int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % size;
+    if (loadBalance == LoadBalance.ROUND_ROBIN || size == 1) {
+      return replicas.get(start);
+    }
+    DataSource selected = null;
+    int selectedActive = Integer.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      DataSource replica = replicas.get((start + i) % size);
+      int active = getActiveConnectionCount(replica);
+      if (active < selectedActive) {
+        selected = replica;
+        selectedActive = active;
+      }
+    }
+    return selected;
+  }
+
+  /*
+   * Only a PooledDataSource knows how many of its connections are in use. Other replicas count as idle,
+   * which makes least active balancing fall back to round robin among them.
+   */
+  private int getActiveConnectionCount(DataSource replica) {
+    if (replica instanceof PooledDataSource) {
+      return ((PooledDataSource) replica).getPoolState().getActiveConnectionCount();
+    }
+    return 0;
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter logWriter) throws SQLException {
+    primary.setLogWriter(logWriter);
+    for (DataSource replica : replicas) {
+      replica.setLogWriter(logWriter);
+    }
+  }
+
+  @Override
+  public void setLoginTimeout(int loginTimeout) throws SQLException {
+    primary.setLoginTimeout(loginTimeout);
+    for (DataSource replica : replicas) {
+      replica.setLoginTimeout(loginTimeout);
+    }
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  // @Override only valid jdk7+
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+  }
+
+}
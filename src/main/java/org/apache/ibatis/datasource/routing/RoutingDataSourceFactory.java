@@ -0,0 +1,95 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+
+/**
+ * Builds a {@link RoutingDataSource} over pooled data sources.
+ * <p>
+ * Properties starting with {@code primary.} configure the primary and those starting with
+ * {@code replica.<name>.} configure one replica each, with the same names a POOLED data source takes.
+ * {@code loadBalance} is ROUND_ROBIN (the default) or LEAST_ACTIVE.
+ */
+public class RoutingDataSourceFactory implements DataSourceFactory {
+
+  private static final String PRIMARY_PREFIX = "primary.";
+  private static final String REPLICA_PREFIX = "replica.";
+  private static final String LOAD_BALANCE = "loadBalance";
+
+  protected DataSource dataSource;
+
+  @Override
+  public void setProperties(Properties properties) {
+    Properties primaryProperties = new Properties();
+    Map<String, Properties> replicaProperties = new TreeMap<String, Properties>();
+    LoadBalance loadBalance = LoadBalance.ROUND_ROBIN;
+    for (Object key : properties.keySet()) {
+      String propertyName = (String) key;
+      String value = properties.getProperty(propertyName);
+      if (propertyName.startsWith(PRIMARY_PREFIX)) {
+        primaryProperties.setProperty(propertyName.substring(PRIMARY_PREFIX.length()), value);
+      } else if (propertyName.startsWith(REPLICA_PREFIX) && propertyName.indexOf('.', REPLICA_PREFIX.length()) > 0) {
+        int dot = propertyName.indexOf('.', REPLICA_PREFIX.length());
+        String replicaName = propertyName.substring(REPLICA_PREFIX.length(), dot);
+        Properties replica = replicaProperties.get(replicaName);
+        if (replica == null) {
+          replica = new Properties();
+          replicaProperties.put(replicaName, replica);
+        }
+        replica.setProperty(propertyName.substring(dot + 1), value);
+      } else if (LOAD_BALANCE.equals(propertyName)) {
+        try {
+          loadBalance = LoadBalance.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+          throw new DataSourceException("Unknown load balance: " + value + ". Use ROUND_ROBIN or LEAST_ACTIVE.");
+        }
+      } else {
+        throw new DataSourceException("Unknown DataSource property: " + propertyName);
+      }
+    }
+    if (primaryProperties.isEmpty()) {
+      throw new DataSourceException("The routing DataSource requires primary.* properties.");
+    }
+    List<DataSource> replicas = new ArrayList<DataSource>();
+    for (Properties replica : replicaProperties.values()) {
+      replicas.add(newPooledDataSource(replica));
+    }
+    dataSource = new RoutingDataSource(newPooledDataSource(primaryProperties), replicas, loadBalance);
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  private DataSource newPooledDataSource(Properties properties) {
+    DataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(properties);
+    return factory.getDataSource();
+  }
+
+}
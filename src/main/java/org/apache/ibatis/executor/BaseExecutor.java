@@ -20,20 +20,27 @@ import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOL
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.routing.RoutingDataSource;
 import org.apache.ibatis.executor.statement.StatementUtil;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
@@ -41,7 +48,9 @@ import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.TransactionIsolationLevel;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
@@ -62,6 +71,18 @@ public abstract class BaseExecutor implements Executor {
   protected int queryStack;
   private boolean closed;
 
+  // rows of the locally cached results, least recently used first, kept when the local cache is bounded
+  private LinkedHashMap<CacheKey, Integer> localCacheRows;
+  private int localCacheRowCount;
+  // results too large to keep, dropped once the statement running no longer needs them
+  private List<CacheKey> oversizedResults;
+
+  private final RoutingDataSource routingDataSource;
+  private final TransactionFactory transactionFactory;
+  private SqlCommandType commandType;
+  private SqlCommandType routedCommandType;
+  private Connection routedConnection;
+
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
@@ -70,6 +91,10 @@ public abstract class BaseExecutor implements Executor {
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
+    Environment environment = configuration == null ? null : configuration.getEnvironment();
+    this.routingDataSource = environment != null && environment.getDataSource() instanceof RoutingDataSource
+        ? (RoutingDataSource) environment.getDataSource() : null;
+    this.transactionFactory = routingDataSource == null ? null : environment.getTransactionFactory();
   }
 
   @Override
@@ -114,7 +139,17 @@ public abstract class BaseExecutor implements Executor {
       throw new ExecutorException("Executor was closed.");
     }
     clearLocalCache();
-    return doUpdate(ms, parameter);
+    routeStatement(ms);
+    if (routingDataSource == null) {
+      return doUpdate(ms, parameter);
+    }
+    // statements run on behalf of the write, like the select of a selectKey, must open their connection where it goes
+    SqlCommandType previous = RoutingDataSource.route(commandType);
+    try {
+      return doUpdate(ms, parameter);
+    } finally {
+      RoutingDataSource.restore(previous);
+    }
   }
 
   @Override
@@ -132,10 +167,21 @@ public abstract class BaseExecutor implements Executor {
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
     BoundSql boundSql = ms.getBoundSql(parameter);
-    CacheKey key = createCacheKey(ms, parameter, rowBounds, boundSql);
+    CacheKey key = isLocalCacheUseless(ms) ? CacheKey.NULL_CACHE_KEY : createCacheKey(ms, parameter, rowBounds, boundSql);
     return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
  }
 
+  /*
+   * With the statement scope, the local cache only serves the nested selects of the statement running
+   * and is cleared when it ends, so a statement without nested selects that is not itself nested
+   * needs no key. Such a query is given the null key, which is never cached.
+   */
+  private boolean isLocalCacheUseless(MappedStatement ms) {
+    return queryStack == 0
+        && configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT
+        && !ms.hasNestedQueries();
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
@@ -149,8 +195,11 @@ public abstract class BaseExecutor implements Executor {
     List<E> list;
     try {
       queryStack++;
-      list = resultHandler == null ? (List<E>) localCache.getObject(key) : null;
+      list = resultHandler == null && key != CacheKey.NULL_CACHE_KEY ? (List<E>) localCache.getObject(key) : null;
       if (list != null) {
+        if (localCacheRows != null) {
+          localCacheRows.get(key);
+        }
         handleLocallyCachedOutputParameters(ms, key, parameter, boundSql);
       } else {
         list = queryFromDatabase(ms, parameter, rowBounds, resultHandler, key, boundSql);
@@ -167,6 +216,9 @@ public abstract class BaseExecutor implements Executor {
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
         // issue #482
         clearLocalCache();
+      } else {
+        // the deferred loads are done, the cached results may go
+        trimLocalCache();
       }
     }
     return list;
@@ -175,6 +227,7 @@ public abstract class BaseExecutor implements Executor {
   @Override
   public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
     BoundSql boundSql = ms.getBoundSql(parameter);
+    routeStatement(ms);
     return doQueryCursor(ms, parameter, rowBounds, boundSql);
   }
 
@@ -196,12 +249,12 @@ public abstract class BaseExecutor implements Executor {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    CacheKey cacheKey = new CacheKey();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    CacheKey cacheKey = new CacheKey(parameterMappings.size() + 5);
     cacheKey.update(ms.getId());
     cacheKey.update(rowBounds.getOffset());
     cacheKey.update(rowBounds.getLimit());
-    cacheKey.update(boundSql.getSql());
-    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    cacheKey.update(ms.internSql(boundSql.getSql()));
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
     // mimic DefaultParameterHandler logic
     for (ParameterMapping parameterMapping : parameterMappings) {
@@ -243,6 +296,7 @@ public abstract class BaseExecutor implements Executor {
     if (required) {
       transaction.commit();
     }
+    releaseReplicaConnection();
   }
 
   @Override
@@ -256,6 +310,7 @@ public abstract class BaseExecutor implements Executor {
           transaction.rollback();
         }
       }
+      releaseReplicaConnection();
     }
   }
 
@@ -264,6 +319,11 @@ public abstract class BaseExecutor implements Executor {
     if (!closed) {
       localCache.clear();
       localOutputParameterCache.clear();
+      if (localCacheRows != null) {
+        localCacheRows.clear();
+      }
+      localCacheRowCount = 0;
+      oversizedResults = null;
     }
   }
 
@@ -318,9 +378,14 @@ public abstract class BaseExecutor implements Executor {
   }
 
   private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
+    if (key == CacheKey.NULL_CACHE_KEY) {
+      routeStatement(ms);
+      return doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+    }
     List<E> list;
     localCache.putObject(key, EXECUTION_PLACEHOLDER);
     try {
+      routeStatement(ms);
       list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
     } finally {
       localCache.removeObject(key);
@@ -329,11 +394,66 @@ public abstract class BaseExecutor implements Executor {
     if (ms.getStatementType() == StatementType.CALLABLE) {
       localOutputParameterCache.putObject(key, parameter);
     }
+    countLocalCacheRows(key, list == null ? 0 : list.size());
     return list;
   }
 
+  private void countLocalCacheRows(CacheKey key, int rows) {
+    Integer maxResultRows = configuration.getLocalCacheMaxResultRows();
+    if (maxResultRows != null && rows > maxResultRows) {
+      if (oversizedResults == null) {
+        oversizedResults = new ArrayList<CacheKey>();
+      }
+      oversizedResults.add(key);
+    }
+    if (configuration.getLocalCacheMaxEntries() != null || configuration.getLocalCacheMaxRows() != null) {
+      if (localCacheRows == null) {
+        localCacheRows = new LinkedHashMap<CacheKey, Integer>(16, 0.75f, true);
+      }
+      Integer replaced = localCacheRows.put(key, rows);
+      localCacheRowCount += replaced == null ? rows : rows - replaced;
+    }
+  }
+
+  /*
+   * Only called between statements: while one runs, its nested queries and deferred loads rely on
+   * the results cached, and on the execution placeholders, to resolve circular references.
+   */
+  private void trimLocalCache() {
+    if (oversizedResults != null) {
+      for (CacheKey key : oversizedResults) {
+        removeLocalCacheEntry(key);
+      }
+      oversizedResults = null;
+    }
+    if (localCacheRows != null) {
+      Integer maxEntries = configuration.getLocalCacheMaxEntries();
+      Integer maxRows = configuration.getLocalCacheMaxRows();
+      Iterator<Map.Entry<CacheKey, Integer>> eldest = localCacheRows.entrySet().iterator();
+      while (eldest.hasNext()
+          && ((maxEntries != null && localCacheRows.size() > maxEntries) || (maxRows != null && localCacheRowCount > maxRows))) {
+        Map.Entry<CacheKey, Integer> entry = eldest.next();
+        localCacheRowCount -= entry.getValue();
+        eldest.remove();
+        localCache.removeObject(entry.getKey());
+        localOutputParameterCache.removeObject(entry.getKey());
+      }
+    }
+  }
+
+  private void removeLocalCacheEntry(CacheKey key) {
+    localCache.removeObject(key);
+    localOutputParameterCache.removeObject(key);
+    if (localCacheRows != null) {
+      Integer rows = localCacheRows.remove(key);
+      if (rows != null) {
+        localCacheRowCount -= rows;
+      }
+    }
+  }
+
   protected Connection getConnection(Log statementLog) throws SQLException {
-    Connection connection = transaction.getConnection();
+    Connection connection = routingDataSource == null ? transaction.getConnection() : getRoutedConnection();
     if (statementLog.isDebugEnabled()) {
       return ConnectionLogger.newInstance(connection, statementLog, queryStack);
     } else {
@@ -341,6 +461,79 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  /*
+   * With a RoutingDataSource, the first statement of the transaction decides where its connection comes from.
+   * Nothing was written on a connection of a read replica, so the first write gives it back and the transaction
+   * goes on with a connection of the primary. A statement run while a write is in progress goes to the primary too.
+   */
+  private void routeStatement(MappedStatement ms) throws SQLException {
+    if (routingDataSource == null) {
+      return;
+    }
+    SqlCommandType writing = RoutingDataSource.current();
+    commandType = writing != null ? writing : ms.getSqlCommandType();
+    if (!routingDataSource.routesToReplica(commandType)) {
+      releaseReplicaConnection();
+    }
+  }
+
+  private Connection getRoutedConnection() throws SQLException {
+    SqlCommandType previous = RoutingDataSource.route(commandType);
+    try {
+      Connection connection = transaction.getConnection();
+      if (connection != routedConnection) {
+        routedConnection = connection;
+        routedCommandType = commandType;
+      } else if (routingDataSource.routesToReplica(routedCommandType) && !routingDataSource.routesToReplica(commandType)) {
+        // the transaction kept its connection, as a managed one that the container closes does
+        throw new ExecutorException("Cannot execute a " + commandType + " on a read replica. "
+            + "The transaction started with a select and was routed to a replica. "
+            + "Run the write in a separate session or make it the first statement of the transaction.");
+      }
+      return connection;
+    } finally {
+      RoutingDataSource.restore(previous);
+    }
+  }
+
+  /*
+   * Gives back the connection of a read replica, the next statement opens a connection where it goes.
+   * The statements kept by the executor belong to that connection and are closed first. A closed transaction
+   * does not open another connection, so it is replaced by a new one with the same auto-commit and isolation.
+   * A transaction that keeps its connection stays on the replica.
+   */
+  private void releaseReplicaConnection() throws SQLException {
+    if (routedCommandType != null && routingDataSource.routesToReplica(routedCommandType)) {
+      flushStatements(true);
+      boolean autoCommit = routedConnection.getAutoCommit();
+      TransactionIsolationLevel level = isolationLevel(routedConnection.getTransactionIsolation());
+      transaction.close();
+      if (isClosed(routedConnection) && transactionFactory != null) {
+        transaction = transactionFactory.newTransaction(routingDataSource, level, autoCommit);
+        routedConnection = null;
+        routedCommandType = null;
+      }
+    }
+  }
+
+  private static boolean isClosed(Connection connection) {
+    try {
+      return connection.isClosed();
+    } catch (SQLException e) {
+      // a pooled connection that was given back
+      return true;
+    }
+  }
+
+  private static TransactionIsolationLevel isolationLevel(int level) {
+    for (TransactionIsolationLevel isolationLevel : TransactionIsolationLevel.values()) {
+      if (isolationLevel.getLevel() == level && level != Connection.TRANSACTION_NONE) {
+        return isolationLevel;
+      }
+    }
+    return null;
+  }
+
   @Override
   public void setExecutorWrapper(Executor wrapper) {
     this.wrapper = wrapper;
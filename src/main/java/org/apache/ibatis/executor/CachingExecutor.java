@@ -16,18 +16,30 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.SqlTables;
+import org.apache.ibatis.cache.TableVersions;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.CoalescingCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.invalidation.CacheInvalidationBus;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -40,9 +52,21 @@ public class CachingExecutor implements Executor {
 
   private Executor delegate;
   private TransactionalCacheManager tcm = new TransactionalCacheManager();
+  // tables written in this transaction, null once a write of unknown tables is made
+  private Set<String> writtenTables = new HashSet<String>();
+  private boolean dirtyTables;
+  // updates made since the last commit or rollback
+  private boolean pendingWrites;
+  private TableVersions tableVersions;
+  private final CacheInvalidationBus invalidationBus;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  public CachingExecutor(Executor delegate, CacheInvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.invalidationBus = invalidationBus;
     delegate.setExecutorWrapper(this);
   }
 
@@ -56,9 +80,9 @@ public class CachingExecutor implements Executor {
     try {
       //issues #499, #524 and #573
       if (forceRollback) { 
-        tcm.rollback();
+        rollbackCaches();
       } else {
-        tcm.commit();
+        commitCaches();
       }
     } finally {
       delegate.close(forceRollback);
@@ -72,12 +96,27 @@ public class CachingExecutor implements Executor {
 
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
-    flushCacheIfRequired(ms);
+    pendingWrites = true;
+    if (isTableCacheInvalidation(ms)) {
+      if (ms.isFlushCacheRequired()) {
+        addWrittenTables(ms, parameterObject);
+      }
+    } else {
+      flushCacheIfRequired(ms);
+    }
     return delegate.update(ms, parameterObject);
   }
 
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
+    Cache cache = ms.getCache();
+    if (cache == null || !ms.isUseCache() || resultHandler != null) {
+      // the second level cache is not read, the delegate builds a key only if its local cache needs one
+      if (cache != null) {
+        flushCacheIfRequired(ms);
+      }
+      return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler);
+    }
     BoundSql boundSql = ms.getBoundSql(parameterObject);
     CacheKey key = createCacheKey(ms, parameterObject, rowBounds, boundSql);
     return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
@@ -97,11 +136,33 @@ public class CachingExecutor implements Executor {
       flushCacheIfRequired(ms);
       if (ms.isUseCache() && resultHandler == null) {
         ensureNoOutParams(ms, parameterObject, boundSql);
+        CacheKey cacheKey = key;
+        if (isTableCacheInvalidation(ms)) {
+          SqlTables tables = ms.getConfiguration().getTableVersions().getTables(ms, parameterObject, boundSql);
+          Set<String> readTables = tables == null ? null : tables.getReadTables();
+          if (isWritten(readTables)) {
+            // the shared cache does not hold this session's uncommitted changes
+            return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          }
+          cacheKey = ms.getConfiguration().getTableVersions().versionedKey(key, readTables);
+        }
         @SuppressWarnings("unchecked")
-        List<E> list = (List<E>) tcm.getObject(cache, key);
+        List<E> list = (List<E>) tcm.getObject(cache, cacheKey);
         if (list == null) {
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          long start = System.nanoTime();
+          if (isCoalescable(cache, ms)) {
+            list = coalescedQuery((CoalescingCache) cache, ms, parameterObject, rowBounds, cacheKey, key, boundSql);
+          } else {
+            list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          }
+          CacheStatistics statistics = ms.getConfiguration().getCacheStatistics(cache.getId());
+          if (statistics != null) {
+            statistics.entryLoaded(System.nanoTime() - start);
+          }
+          if (cache instanceof RefreshAheadCache && ((RefreshAheadCache) cache).canRegister(cacheKey)) {
+            ((RefreshAheadCache) cache).register(cacheKey, new StatementRefresher(ms, parameterObject, rowBounds, key, boundSql));
+          }
+          tcm.putObject(cache, cacheKey, list); // issue #578 and #116
         }
         return list;
       }
@@ -109,6 +170,61 @@ public class CachingExecutor implements Executor {
     return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  /*
+   * Sessions with uncommitted writes may read their own changes, so they never share results. Without a
+   * serializer to copy them, shared results would hold lazy loading proxies bound to the loading session.
+   */
+  private boolean isCoalescable(Cache cache, MappedStatement ms) {
+    if (!(cache instanceof CoalescingCache) || pendingWrites || tcm.isCleared(cache)) {
+      return false;
+    }
+    if (((CoalescingCache) cache).getSerializer() != null) {
+      return true;
+    }
+    Configuration configuration = ms.getConfiguration();
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      if (hasLazyLoads(configuration, resultMap, new HashSet<String>())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean hasLazyLoads(Configuration configuration, ResultMap resultMap, Set<String> visited) {
+    if (!visited.add(resultMap.getId())) {
+      return false;
+    }
+    for (ResultMapping resultMapping : resultMap.getPropertyResultMappings()) {
+      if (resultMapping.getNestedQueryId() != null && resultMapping.isLazy()) {
+        return true;
+      }
+      if (resultMapping.getNestedResultMapId() != null
+          && hasLazyLoads(configuration, configuration.getResultMap(resultMapping.getNestedResultMapId()), visited)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <E> List<E> coalescedQuery(CoalescingCache cache, final MappedStatement ms, final Object parameterObject, final RowBounds rowBounds,
+      CacheKey cacheKey, final CacheKey key, final BoundSql boundSql) throws SQLException {
+    try {
+      return (List<E>) cache.load(cacheKey, new Callable<List<E>>() {
+        @Override
+        public List<E> call() throws SQLException {
+          return delegate.<E> query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+        }
+      });
+    } catch (SQLException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ExecutorException("Error querying the key " + key + ".  Cause: " + e, e);
+    }
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -117,7 +233,8 @@ public class CachingExecutor implements Executor {
   @Override
   public void commit(boolean required) throws SQLException {
     delegate.commit(required);
-    tcm.commit();
+    commitCaches();
+    pendingWrites = false;
   }
 
   @Override
@@ -126,8 +243,9 @@ public class CachingExecutor implements Executor {
       delegate.rollback(required);
     } finally {
       if (required) {
-        tcm.rollback();
+        rollbackCaches();
       }
+      pendingWrites = false;
     }
   }
 
@@ -161,6 +279,82 @@ public class CachingExecutor implements Executor {
     delegate.clearLocalCache();
   }
 
+  private boolean isTableCacheInvalidation(MappedStatement ms) {
+    return ms.getConfiguration().isTableCacheInvalidation();
+  }
+
+  private void addWrittenTables(MappedStatement ms, Object parameterObject) {
+    tableVersions = ms.getConfiguration().getTableVersions();
+    SqlTables tables = tableVersions.getTables(ms, parameterObject, null);
+    if (tables == null || tables.getWrittenTables().isEmpty()) {
+      writtenTables = null;
+    } else if (writtenTables != null) {
+      writtenTables.addAll(tables.getWrittenTables());
+    }
+    dirtyTables = true;
+  }
+
+  private boolean isWritten(Set<String> readTables) {
+    if (!dirtyTables) {
+      return false;
+    }
+    if (writtenTables == null || readTables == null || readTables.isEmpty()) {
+      return true;
+    }
+    for (String table : readTables) {
+      if (writtenTables.contains(table)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // after the database commit, so that no concurrent session caches the old rows under the new versions
+  // the invalidations of a commit are published to the other nodes in one message
+  private void commitCaches() {
+    if (invalidationBus != null) {
+      invalidationBus.begin();
+    }
+    try {
+      tcm.commit();
+      commitWrittenTables();
+    } finally {
+      if (invalidationBus != null) {
+        invalidationBus.end();
+      }
+    }
+  }
+
+  // a rollback only removes the entries it locked, which the other nodes never had
+  private void rollbackCaches() {
+    if (invalidationBus != null) {
+      invalidationBus.begin();
+    }
+    try {
+      tcm.rollback();
+      resetWrittenTables();
+    } finally {
+      if (invalidationBus != null) {
+        invalidationBus.discard();
+      }
+    }
+  }
+
+  private void commitWrittenTables() {
+    if (dirtyTables) {
+      tableVersions.written(writtenTables);
+      if (invalidationBus != null) {
+        invalidationBus.tablesWritten(writtenTables);
+      }
+      resetWrittenTables();
+    }
+  }
+
+  private void resetWrittenTables() {
+    writtenTables = new HashSet<String>();
+    dirtyTables = false;
+  }
+
   private void flushCacheIfRequired(MappedStatement ms) {
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) {      
@@ -0,0 +1,129 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ * Runs a cached query again, outside of the session that first ran it, to refresh its cache entry.
+ * The second level cache is bypassed, otherwise the stale entry would be read back.
+ *
+ * The values bound to the query are copied when the refresher is created, so that the caller may change
+ * or drop its parameter object afterwards. The refresh binds them through a map of its own.
+ */
+class StatementRefresher implements Callable<List<Object>> {
+
+  private final MappedStatement ms;
+  private final Map<String, Object> parameterObject;
+  private final RowBounds rowBounds;
+  private final CacheKey key;
+  private final BoundSql boundSql;
+
+  StatementRefresher(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) {
+    this.ms = ms;
+    this.parameterObject = new HashMap<String, Object>();
+    this.rowBounds = rowBounds;
+    this.key = key;
+    this.boundSql = bindValues(ms.getConfiguration(), parameterObject, boundSql, this.parameterObject);
+  }
+
+  @Override
+  public List<Object> call() throws Exception {
+    Executor executor = newExecutor();
+    try {
+      return executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+    } finally {
+      executor.close(false);
+    }
+  }
+
+  /*
+   * Resolves the value of each parameter like the DefaultParameterHandler does and maps it to a name of its own
+   *
+   * @param values - receives the resolved values
+   * @return the same SQL, with parameters read from the values
+   */
+  private static BoundSql bindValues(Configuration configuration, Object parameterObject, BoundSql boundSql, Map<String, Object> values) {
+    TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    MetaObject metaObject = null;
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      String propertyName = parameterMapping.getProperty();
+      Object value;
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      String name = "param" + parameterMappings.size();
+      values.put(name, value);
+      parameterMappings.add(new ParameterMapping.Builder(configuration, name, parameterMapping.getTypeHandler())
+          .mode(parameterMapping.getMode())
+          .javaType(parameterMapping.getJavaType())
+          .jdbcType(parameterMapping.getJdbcType())
+          .numericScale(parameterMapping.getNumericScale())
+          .resultMapId(parameterMapping.getResultMapId())
+          .jdbcTypeName(parameterMapping.getJdbcTypeName())
+          .expression(parameterMapping.getExpression())
+          .build());
+    }
+    return new BoundSql(configuration, boundSql.getSql(), parameterMappings, values);
+  }
+
+  private Executor newExecutor() {
+    final Configuration configuration = ms.getConfiguration();
+    final Environment environment = configuration.getEnvironment();
+    if (environment == null) {
+      throw new ExecutorException("Could not refresh " + ms.getId() + ".  Environment was not configured.");
+    }
+    final DataSource ds = environment.getDataSource();
+    if (ds == null) {
+      throw new ExecutorException("Could not refresh " + ms.getId() + ".  DataSource was not configured.");
+    }
+    final Transaction tx = environment.getTransactionFactory().newTransaction(ds, null, false);
+    Executor executor = new SimpleExecutor(configuration, tx);
+    for (Interceptor interceptor : configuration.getInterceptors()) {
+      executor = (Executor) interceptor.plugin(executor);
+    }
+    return executor;
+  }
+
+}
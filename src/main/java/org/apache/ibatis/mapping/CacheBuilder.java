@@ -23,14 +23,25 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.ThreadSafeCache;
+import org.apache.ibatis.cache.Weigher;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.BroadcastingCache;
+import org.apache.ibatis.cache.decorators.CoalescingCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.invalidation.CacheInvalidationBus;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.cache.serializer.Serializer;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -42,10 +53,20 @@ public class CacheBuilder {
   private Class<? extends Cache> implementation;
   private List<Class<? extends Cache>> decorators;
   private Integer size;
+  private Long maxWeight;
+  private Class<? extends Weigher> weigher;
   private Long clearInterval;
+  private Long expireAfterWrite;
+  private Long expireAfterAccess;
+  private Long expiryJitter;
+  private Long refreshAfterWrite;
   private boolean readWrite;
+  private Class<? extends Serializer> serializer;
   private Properties properties;
   private boolean blocking;
+  private boolean coalescing;
+  private CacheStatistics statistics;
+  private CacheInvalidationBus invalidationBus;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -69,21 +90,71 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder maxWeight(Long maxWeight) {
+    this.maxWeight = maxWeight;
+    return this;
+  }
+
+  public CacheBuilder weigher(Class<? extends Weigher> weigher) {
+    this.weigher = weigher;
+    return this;
+  }
+
   public CacheBuilder clearInterval(Long clearInterval) {
     this.clearInterval = clearInterval;
     return this;
   }
 
+  public CacheBuilder expireAfterWrite(Long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+    return this;
+  }
+
+  public CacheBuilder expireAfterAccess(Long expireAfterAccess) {
+    this.expireAfterAccess = expireAfterAccess;
+    return this;
+  }
+
+  public CacheBuilder expiryJitter(Long expiryJitter) {
+    this.expiryJitter = expiryJitter;
+    return this;
+  }
+
+  public CacheBuilder refreshAfterWrite(Long refreshAfterWrite) {
+    this.refreshAfterWrite = refreshAfterWrite;
+    return this;
+  }
+
   public CacheBuilder readWrite(boolean readWrite) {
     this.readWrite = readWrite;
     return this;
   }
 
+  public CacheBuilder serializer(Class<? extends Serializer> serializer) {
+    this.serializer = serializer;
+    return this;
+  }
+
   public CacheBuilder blocking(boolean blocking) {
     this.blocking = blocking;
     return this;
   }
+
+  public CacheBuilder coalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+    return this;
+  }
   
+  public CacheBuilder statistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
+  public CacheBuilder invalidationBus(CacheInvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -91,7 +162,11 @@ public class CacheBuilder {
 
   public Cache build() {
     setDefaultImplementations();
+    if (statistics == null) {
+      statistics = new CacheStatistics(id);
+    }
     Cache cache = newBaseCacheInstance(implementation, id);
+    setSerializer(cache);
     setCacheProperties(cache);
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
@@ -101,8 +176,13 @@ public class CacheBuilder {
       }
       cache = setStandardDecorators(cache);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
-      cache = new LoggingCache(cache);
+      setStatistics(cache);
+      cache = new LoggingCache(cache, statistics);
+      if (invalidationBus != null) {
+        cache = new BroadcastingCache(cache, invalidationBus);
+      }
     }
+    statistics.setCache(cache);
     return cache;
   }
 
@@ -121,24 +201,90 @@ public class CacheBuilder {
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
+      if (maxWeight != null && metaCache.hasSetter("maxWeight")) {
+        metaCache.setValue("maxWeight", maxWeight);
+        if (weigher != null) {
+          metaCache.setValue("weigher", weigher.newInstance());
+        }
+      }
+      setStatistics(cache);
+      boolean threadSafe = isThreadSafe();
       if (clearInterval != null) {
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
+        threadSafe = threadSafe && cache instanceof ThreadSafeCache;
+      }
+      if (expireAfterWrite != null || expireAfterAccess != null) {
+        ExpiringCache expiringCache = new ExpiringCache(cache);
+        expiringCache.setExpireAfterWrite(expireAfterWrite == null ? 0 : expireAfterWrite);
+        expiringCache.setExpireAfterAccess(expireAfterAccess == null ? 0 : expireAfterAccess);
+        expiringCache.setJitter(expiryJitter == null ? 0 : expiryJitter);
+        expiringCache.setEvictionListener(statistics);
+        cache = expiringCache;
+        threadSafe = threadSafe && cache instanceof ThreadSafeCache;
       }
       if (readWrite) {
-        cache = new SerializedCache(cache);
+        cache = serializer == null ? new SerializedCache(cache) : new SerializedCache(cache, serializer.newInstance());
+        threadSafe = threadSafe && cache instanceof ThreadSafeCache;
+      }
+      cache = new LoggingCache(cache, statistics);
+      if (!threadSafe) {
+        cache = new SynchronizedCache(cache);
+      }
+      if (invalidationBus != null) {
+        cache = new BroadcastingCache(cache, invalidationBus);
       }
-      cache = new LoggingCache(cache);
-      cache = new SynchronizedCache(cache);
       if (blocking) {
         cache = new BlockingCache(cache);
       }
+      if (refreshAfterWrite != null || coalescing) {
+        // a refresh ahead cache coalesces its misses itself, when asked to
+        CoalescingCache coalescingCache = refreshAfterWrite != null ? new RefreshAheadCache(cache) : new CoalescingCache(cache);
+        if (refreshAfterWrite != null) {
+          ((RefreshAheadCache) coalescingCache).setRefreshAfterWrite(refreshAfterWrite);
+        }
+        coalescingCache.setCoalescing(coalescing);
+        if (readWrite) {
+          coalescingCache.setSerializer(serializer == null ? new JavaSerializer() : serializer.newInstance());
+        }
+        cache = coalescingCache;
+        setCacheProperties(cache);
+      }
       return cache;
     } catch (Exception e) {
       throw new CacheException("Error building standard cache decorators.  Cause: " + e, e);
     }
   }
 
+  private void setStatistics(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (metaCache.hasSetter("evictionListener")) {
+      metaCache.setValue("evictionListener", statistics);
+    }
+    statistics.setWeighedCache(cache);
+  }
+
+  // implementations that store serialized values take the serializer of the namespace
+  private void setSerializer(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (serializer != null && metaCache.hasSetter("serializer") && Serializer.class == metaCache.getSetterType("serializer")) {
+      try {
+        metaCache.setValue("serializer", serializer.newInstance());
+      } catch (Exception e) {
+        throw new CacheException("Could not instantiate the serializer " + serializer + " of the cache '" + id + "'.  Cause: " + e, e);
+      }
+    }
+  }
+
+  private boolean isThreadSafe() {
+    for (Class<? extends Cache> decorator : decorators) {
+      if (!ThreadSafeCache.class.isAssignableFrom(decorator)) {
+        return false;
+      }
+    }
+    return !decorators.isEmpty();
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
@@ -170,6 +316,8 @@ public class CacheBuilder {
           } else if (double.class == type
               || Double.class == type) {
             metaCache.setValue(name, Double.valueOf(value));
+          } else if (Serializer.class == type) {
+            metaCache.setValue(name, newSerializer(value));
           } else {
             throw new CacheException("Unsupported property type for cache: '" + name + "' of type " + type);
           }
@@ -186,6 +334,14 @@ public class CacheBuilder {
     }
   }
 
+  private Serializer newSerializer(String className) {
+    try {
+      return (Serializer) Resources.classForName(className).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate the serializer " + className + " of the cache '" + id + "'.  Cause: " + e, e);
+    }
+  }
+
   private Cache newBaseCacheInstance(Class<? extends Cache> cacheClass, String id) {
     Constructor<? extends Cache> cacheConstructor = getBaseCacheConstructor(cacheClass);
     try {
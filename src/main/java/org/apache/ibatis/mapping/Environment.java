@@ -17,6 +17,7 @@ package org.apache.ibatis.mapping;
 
 import javax.sql.DataSource;
 
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.apache.ibatis.transaction.TransactionFactory;
 
 /**
@@ -66,7 +67,12 @@ public final class Environment {
     }
 
     public Environment build() {
-      return new Environment(this.id, this.transactionFactory, this.dataSource);
+      Environment environment = new Environment(this.id, this.transactionFactory, this.dataSource);
+      if (dataSource instanceof PooledDataSource) {
+        // opens connections only if poolWarmupConnections is set
+        ((PooledDataSource) dataSource).warmUp();
+      }
+      return environment;
     }
 
   }
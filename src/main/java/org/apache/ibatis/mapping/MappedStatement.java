@@ -17,7 +17,10 @@ package org.apache.ibatis.mapping;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
@@ -33,6 +36,9 @@ import org.apache.ibatis.session.Configuration;
  */
 public final class MappedStatement {
 
+  // the sql texts built by a dynamic statement are few, but each execution builds a new string
+  private static final int MAX_INTERNED_SQL = 64;
+
   private String resource;
   private Configuration configuration;
   private String id;
@@ -56,6 +62,8 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  private volatile Boolean hasNestedQueries;
+  private final ConcurrentHashMap<String, String> internedSql = new ConcurrentHashMap<String, String>();
 
   MappedStatement() {
     // constructor disabled
@@ -214,6 +222,51 @@ public final class MappedStatement {
     return hasNestedResultMaps;
   }
 
+  /**
+   * Whether mapping the results may run nested selects, looking through the nested and discriminated
+   * result maps. Callable statements are taken as having some, their cursors may be mapped by any result map.
+   * Computed on first use, once the result maps referenced are all built.
+   *
+   * @since 3.4.3
+   */
+  public boolean hasNestedQueries() {
+    Boolean nested = hasNestedQueries;
+    if (nested == null) {
+      nested = statementType == StatementType.CALLABLE;
+      Set<String> visited = new HashSet<String>();
+      for (ResultMap resultMap : resultMaps) {
+        nested = nested || hasNestedQueries(resultMap, visited);
+      }
+      hasNestedQueries = nested;
+    }
+    return nested;
+  }
+
+  private boolean hasNestedQueries(ResultMap resultMap, Set<String> visited) {
+    if (!visited.add(resultMap.getId())) {
+      return false;
+    }
+    if (resultMap.hasNestedQueries()) {
+      return true;
+    }
+    Set<String> referenced = new HashSet<String>();
+    for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+      if (resultMapping.getNestedResultMapId() != null) {
+        referenced.add(resultMapping.getNestedResultMapId());
+      }
+    }
+    if (resultMap.getDiscriminator() != null) {
+      referenced.addAll(resultMap.getDiscriminator().getDiscriminatorMap().values());
+    }
+    for (String id : referenced) {
+      // an unknown result map may have some
+      if (!configuration.hasResultMap(id) || hasNestedQueries(configuration.getResultMap(id), visited)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public Integer getFetchSize() {
     return fetchSize;
   }
@@ -309,6 +362,25 @@ public final class MappedStatement {
     return boundSql;
   }
 
+  /**
+   * Returns the instance of the sql text shared by the executions of this statement, so the cache keys
+   * built from it hold one string and compare it by reference. A statement that builds too many
+   * different sql texts gets its own string back.
+   *
+   * @since 3.4.3
+   */
+  public String internSql(String sql) {
+    String interned = internedSql.get(sql);
+    if (interned != null) {
+      return interned;
+    }
+    if (internedSql.size() >= MAX_INTERNED_SQL) {
+      return sql;
+    }
+    interned = internedSql.putIfAbsent(sql, sql);
+    return interned == null ? sql : interned;
+  }
+
   private static String[] delimitedStringToArray(String in) {
     if (in == null || in.trim().length() == 0) {
       return null;
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.CacheRefResolver;
@@ -31,13 +32,24 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.TableVersions;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.invalidation.CacheInvalidationBus;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
+import org.apache.ibatis.cache.invalidation.LoopbackTransport;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.RoutingDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
 import org.apache.ibatis.executor.CachingExecutor;
@@ -105,6 +117,9 @@ public class Configuration {
   protected boolean useGeneratedKeys;
   protected boolean useColumnLabel = true;
   protected boolean cacheEnabled = true;
+  protected boolean tableCacheInvalidation;
+  protected boolean cacheJmxEnabled;
+  protected CacheInvalidationBus cacheInvalidationBus;
   protected boolean callSettersOnNulls;
   protected boolean useActualParamName = true;
   protected boolean returnInstanceForEmptyRow;
@@ -113,6 +128,9 @@ public class Configuration {
   protected Class <? extends Log> logImpl;
   protected Class <? extends VFS> vfsImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  protected Integer localCacheMaxEntries;
+  protected Integer localCacheMaxRows;
+  protected Integer localCacheMaxResultRows;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
@@ -138,6 +156,7 @@ public class Configuration {
    */
   protected Class<?> configurationFactory;
 
+  protected final TableVersions tableVersions = new TableVersions();
   protected final MapperRegistry mapperRegistry = new MapperRegistry(this);
   protected final InterceptorChain interceptorChain = new InterceptorChain();
   protected final TypeHandlerRegistry typeHandlerRegistry = new TypeHandlerRegistry();
@@ -146,6 +165,7 @@ public class Configuration {
 
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  protected final Map<String, CacheStatistics> cacheStatistics = new ConcurrentHashMap<String, CacheStatistics>();
   protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
@@ -177,13 +197,22 @@ public class Configuration {
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("ROUTING", RoutingDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
+    typeAliasRegistry.registerAlias("MAPPED", MappedFileCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentLruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
 
+    typeAliasRegistry.registerAlias("JAVA", JavaSerializer.class);
+    typeAliasRegistry.registerAlias("COMPACT", CompactSerializer.class);
+
+    typeAliasRegistry.registerAlias("LOOPBACK", LoopbackTransport.class);
+
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
     typeAliasRegistry.registerAlias("XML", XMLLanguageDriver.class);
@@ -403,6 +432,68 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  /**
+   * @since 3.4.3
+   */
+  public boolean isTableCacheInvalidation() {
+    return tableCacheInvalidation;
+  }
+
+  /**
+   * @since 3.4.3
+   */
+  public void setTableCacheInvalidation(boolean tableCacheInvalidation) {
+    this.tableCacheInvalidation = tableCacheInvalidation;
+  }
+
+  /**
+   * @since 3.4.3
+   */
+  public boolean isCacheJmxEnabled() {
+    return cacheJmxEnabled;
+  }
+
+  /**
+   * Registers the statistics of the second level caches with the platform MBean server.
+   * @since 3.4.3
+   */
+  public void setCacheJmxEnabled(boolean cacheJmxEnabled) {
+    this.cacheJmxEnabled = cacheJmxEnabled;
+    for (CacheStatistics statistics : cacheStatistics.values()) {
+      if (cacheJmxEnabled) {
+        statistics.registerMBean();
+      } else {
+        statistics.unregisterMBean();
+      }
+    }
+  }
+
+  public TableVersions getTableVersions() {
+    return tableVersions;
+  }
+
+  /**
+   * @since 3.4.3
+   */
+  public CacheInvalidationBus getCacheInvalidationBus() {
+    return cacheInvalidationBus;
+  }
+
+  /**
+   * Publishes the invalidations of the second level caches to the other nodes through the transport,
+   * and applies theirs. Must be set before the mappers are added, their caches are built with it.
+   * @since 3.4.3
+   */
+  public void setCacheInvalidationTransport(InvalidationTransport transport) {
+    if (cacheInvalidationBus != null) {
+      cacheInvalidationBus.stop();
+    }
+    cacheInvalidationBus = transport == null ? null : new CacheInvalidationBus(this, transport);
+    if (cacheInvalidationBus != null) {
+      cacheInvalidationBus.start();
+    }
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -441,6 +532,56 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  /**
+   * @since 3.4.3
+   */
+  public Integer getLocalCacheMaxEntries() {
+    return localCacheMaxEntries;
+  }
+
+  /**
+   * Sets the number of results the local cache of a session keeps between statements, the least recently
+   * used are dropped first.
+   *
+   * @since 3.4.3
+   */
+  public void setLocalCacheMaxEntries(Integer localCacheMaxEntries) {
+    this.localCacheMaxEntries = localCacheMaxEntries;
+  }
+
+  /**
+   * @since 3.4.3
+   */
+  public Integer getLocalCacheMaxRows() {
+    return localCacheMaxRows;
+  }
+
+  /**
+   * Sets the number of rows, summed over all its results, the local cache of a session keeps between
+   * statements.
+   *
+   * @since 3.4.3
+   */
+  public void setLocalCacheMaxRows(Integer localCacheMaxRows) {
+    this.localCacheMaxRows = localCacheMaxRows;
+  }
+
+  /**
+   * @since 3.4.3
+   */
+  public Integer getLocalCacheMaxResultRows() {
+    return localCacheMaxResultRows;
+  }
+
+  /**
+   * Sets the number of rows above which a result is not kept in the local cache once its statement ends.
+   *
+   * @since 3.4.3
+   */
+  public void setLocalCacheMaxResultRows(Integer localCacheMaxResultRows) {
+    this.localCacheMaxResultRows = localCacheMaxResultRows;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -563,7 +704,7 @@ public class Configuration {
       executor = new SimpleExecutor(this, transaction);
     }
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, cacheInvalidationBus);
     }
     executor = (Executor) interceptorChain.pluginAll(executor);
     return executor;
@@ -605,6 +746,24 @@ public class Configuration {
     return caches.get(id);
   }
 
+  public void addCacheStatistics(CacheStatistics statistics) {
+    cacheStatistics.put(statistics.getId(), statistics);
+    if (cacheJmxEnabled) {
+      statistics.registerMBean();
+    }
+  }
+
+  public Collection<CacheStatistics> getCacheStatistics() {
+    return cacheStatistics.values();
+  }
+
+  /**
+   * Returns the statistics of a cache, or null if it was not built from a mapper.
+   */
+  public CacheStatistics getCacheStatistics(String id) {
+    return cacheStatistics.get(id);
+  }
+
   public boolean hasCache(String id) {
     return caches.containsKey(id);
   }
@@ -88,6 +88,9 @@ public class XmlConfigBuilderTest {
     assertThat(config.isMapUnderscoreToCamelCase(), is(false));
     assertThat(config.isSafeRowBoundsEnabled(), is(false));
     assertThat(config.getLocalCacheScope(), is(LocalCacheScope.SESSION));
+    assertNull(config.getLocalCacheMaxEntries());
+    assertNull(config.getLocalCacheMaxRows());
+    assertNull(config.getLocalCacheMaxResultRows());
     assertThat(config.getJdbcTypeForNull(), is(JdbcType.OTHER));
     assertThat(config.getLazyLoadTriggerMethods(), is((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString"))));
     assertThat(config.isSafeResultHandlerEnabled(), is(true));
@@ -179,6 +182,9 @@ public class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase(), is(true));
       assertThat(config.isSafeRowBoundsEnabled(), is(true));
       assertThat(config.getLocalCacheScope(), is(LocalCacheScope.STATEMENT));
+      assertThat(config.getLocalCacheMaxEntries(), is(50));
+      assertThat(config.getLocalCacheMaxRows(), is(10000));
+      assertThat(config.getLocalCacheMaxResultRows(), is(1000));
       assertThat(config.getJdbcTypeForNull(), is(JdbcType.NULL));
       assertThat(config.getLazyLoadTriggerMethods(), is((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString", "xxx"))));
       assertThat(config.isSafeResultHandlerEnabled(), is(false));
@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class BulkCacheTest {
+
+  @Test
+  public void shouldPutAndGetThroughStandardDecorators() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").readWrite(true).statistics(statistics).build();
+    assertTrue(cache instanceof BulkCache);
+    BulkCaches.putObjects(cache, entries(0, 3));
+    Map<Object, Object> found = BulkCaches.getObjects(cache, Arrays.asList(0, 1, 2, 3));
+    assertEquals(entries(0, 3), found);
+    assertEquals(3, statistics.getPuts());
+    assertEquals(3, statistics.getHits());
+    assertEquals(1, statistics.getMisses());
+  }
+
+  @Test
+  public void shouldFallBackToSingleCallsForOtherCaches() {
+    PlainCache cache = new PlainCache();
+    BulkCaches.putObjects(cache, entries(0, 3));
+    assertEquals(3, cache.puts);
+    assertEquals(entries(1, 3), BulkCaches.getObjects(cache, Arrays.asList(1, 2, 5)));
+  }
+
+  @Test
+  public void shouldFlushTransactionalCacheWithOneBulkPut() {
+    RecordingCache delegate = new RecordingCache();
+    TransactionalCache cache = new TransactionalCache(delegate);
+    assertNull(cache.getObject("missed"));
+    cache.putObjects(entries(0, 3));
+    cache.commit();
+    assertEquals(1, delegate.bulkPuts.size());
+    Map<?, ?> flushed = delegate.bulkPuts.get(0);
+    assertEquals(4, flushed.size());
+    assertTrue(flushed.containsKey("missed"));
+    assertNull(flushed.get("missed"));
+    assertEquals(0, delegate.puts);
+  }
+
+  @Test
+  public void shouldReleaseBlockingLocksOnBulkPut() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(500);
+    assertTrue(cache.getObjects(Arrays.asList(0, 1)).isEmpty());
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    entries.put(0, 0);
+    entries.put(1, null);
+    cache.putObjects(entries);
+    final Object[] read = new Object[2];
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        read[0] = cache.getObject(0);
+        cache.getObject(1);
+        cache.putObject(1, 1);
+        read[1] = Boolean.TRUE;
+      }
+    };
+    reader.start();
+    reader.join(1000);
+    assertEquals(0, read[0]);
+    assertEquals(Boolean.TRUE, read[1]);
+  }
+
+  @Test
+  public void shouldNotKeepEntriesEvictedByTheirOwnBatch() {
+    PerpetualCache lruEntries = new PerpetualCache("lru");
+    LruCache lru = new LruCache(lruEntries);
+    lru.setSize(2);
+    lru.putObjects(entries(0, 5));
+    assertEquals(2, lruEntries.getSize());
+    assertEquals(entries(3, 5), lru.getObjects(Arrays.asList(0, 1, 2, 3, 4)));
+
+    PerpetualCache fifoEntries = new PerpetualCache("fifo");
+    FifoCache fifo = new FifoCache(fifoEntries);
+    fifo.setSize(2);
+    fifo.putObjects(entries(0, 5));
+    assertEquals(2, fifoEntries.getSize());
+    assertEquals(entries(3, 5), fifo.getObjects(Arrays.asList(0, 1, 2, 3, 4)));
+  }
+
+  private static Map<Object, Object> entries(int from, int to) {
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    for (int i = from; i < to; i++) {
+      entries.put(i, "value" + i);
+    }
+    return entries;
+  }
+
+  private static class PlainCache implements Cache {
+
+    private int puts;
+    private final Cache entries = new PerpetualCache("default");
+
+    @Override
+    public String getId() {
+      return entries.getId();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      puts++;
+      entries.putObject(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      return entries.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      return entries.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+      entries.clear();
+    }
+
+    @Override
+    public int getSize() {
+      return entries.getSize();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+  }
+
+  private static class RecordingCache extends PerpetualCache {
+
+    private int puts;
+    private final List<Map<?, ?>> bulkPuts = new ArrayList<Map<?, ?>>();
+
+    RecordingCache() {
+      super("default");
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      puts++;
+      super.putObject(key, value);
+    }
+
+    @Override
+    public void putObjects(Map<?, ?> entries) {
+      bulkPuts.add(new LinkedHashMap<Object, Object>(entries));
+      super.putObjects(entries);
+    }
+  }
+
+}
@@ -0,0 +1,195 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.invalidation.CacheInvalidationBus;
+import org.apache.ibatis.cache.invalidation.InvalidationMessage;
+import org.apache.ibatis.cache.invalidation.LoopbackTransport;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheInvalidationBusTest {
+
+  private Configuration node1;
+  private Configuration node2;
+  private CountingTransport transport1;
+  private Cache blogs1;
+  private Cache blogs2;
+  private Cache authors2;
+
+  @Before
+  public void setUp() {
+    transport1 = new CountingTransport("bus-test");
+    node1 = newNode(transport1);
+    node2 = newNode(new LoopbackTransport("bus-test"));
+    blogs1 = addCache(node1, "blogs");
+    addCache(node1, "authors");
+    blogs2 = addCache(node2, "blogs");
+    authors2 = addCache(node2, "authors");
+    blogs2.putObject("blog", "stale");
+    authors2.putObject("author", "stale");
+  }
+
+  @After
+  public void tearDown() {
+    node1.setCacheInvalidationTransport(null);
+    node2.setCacheInvalidationTransport(null);
+  }
+
+  @Test
+  public void shouldClearCacheOfOtherNode() {
+    blogs1.putObject("blog", "fresh");
+    blogs1.clear();
+    assertNull(blogs2.getObject("blog"));
+    assertEquals("stale", authors2.getObject("author"));
+  }
+
+  @Test
+  public void shouldRemoveEntryOfOtherNode() {
+    blogs2.putObject("other", "kept");
+    blogs1.removeObject("blog");
+    assertNull(blogs2.getObject("blog"));
+    assertEquals("kept", blogs2.getObject("other"));
+  }
+
+  @Test
+  public void shouldPublishTheInvalidationsOfACommitInOneMessage() {
+    TransactionalCacheManager tcm = new TransactionalCacheManager();
+    tcm.clear(blogs1);
+    tcm.clear(node1.getCache("authors"));
+    CacheInvalidationBus bus = node1.getCacheInvalidationBus();
+    bus.begin();
+    tcm.commit();
+    bus.tablesWritten(Arrays.asList("BLOG"));
+    assertEquals(0, transport1.published);
+    assertEquals("stale", blogs2.getObject("blog"));
+    bus.end();
+    assertEquals(1, transport1.published);
+    assertNull(blogs2.getObject("blog"));
+    assertNull(authors2.getObject("author"));
+  }
+
+  @Test
+  public void shouldNotPublishTheRemovalsOfARollback() {
+    TransactionalCache txCache = new TransactionalCache(blogs1);
+    assertNull(txCache.getObject("missed"));
+    CacheInvalidationBus bus = node1.getCacheInvalidationBus();
+    bus.begin();
+    txCache.rollback();
+    bus.discard();
+    assertEquals(0, transport1.published);
+  }
+
+  @Test
+  public void shouldInvalidateTablesOfOtherNode() {
+    TableVersions versions = node2.getTableVersions();
+    CacheKey key = new CacheKey(new Object[] { "select" });
+    CacheKey before = versions.versionedKey(key, Collections.singleton("BLOG"));
+    CacheKey author = versions.versionedKey(key, Collections.singleton("AUTHOR"));
+    node1.getCacheInvalidationBus().tablesWritten(Arrays.asList("BLOG"));
+    assertFalse(before.equals(versions.versionedKey(key, Collections.singleton("BLOG"))));
+    assertEquals(author, versions.versionedKey(key, Collections.singleton("AUTHOR")));
+  }
+
+  @Test
+  public void shouldClearWholeCacheWhenKeyCannotBeSent() {
+    blogs2.putObject("other", "stale");
+    blogs1.removeObject(new Object());
+    assertNull(blogs2.getObject("blog"));
+    assertNull(blogs2.getObject("other"));
+  }
+
+  @Test
+  public void shouldRemoveEntryOfOtherNodeBelowItsBlockingCache() {
+    Cache posts1 = addCache(node1, new CacheBuilder("posts"));
+    Cache posts2 = addCache(node2, new CacheBuilder("posts").blocking(true));
+    assertNull(posts2.getObject("post"));
+    posts2.putObject("post", "stale");
+    assertNull(posts2.getObject("other"));
+    posts2.putObject("other", "kept");
+    posts1.removeObject("post");
+    assertNull(posts2.getObject("post"));
+    posts2.putObject("post", "fresh");
+    assertEquals("kept", posts2.getObject("other"));
+  }
+
+  @Test
+  public void shouldNotReadMessagesHoldingOtherClasses() {
+    InvalidationMessage message = new InvalidationMessage("other node");
+    message.entryRemoved("blogs", new CacheKey(new Object[] { UUID.randomUUID() }));
+    message.cacheCleared("authors");
+    transport1.publish(new JavaSerializer().serialize(message));
+    assertEquals("stale", blogs2.getObject("blog"));
+    assertEquals("stale", authors2.getObject("author"));
+  }
+
+  @Test
+  public void shouldClearWholeCacheWhenKeyCannotBeRead() {
+    blogs2.putObject("other", "stale");
+    blogs1.removeObject(new CacheKey(new Object[] { UUID.randomUUID() }));
+    assertNull(blogs2.getObject("blog"));
+    assertNull(blogs2.getObject("other"));
+  }
+
+  @Test
+  public void shouldNotPublishBackReceivedInvalidations() {
+    node2.getCache("blogs").clear();
+    assertEquals(0, transport1.published);
+  }
+
+  private static Configuration newNode(LoopbackTransport transport) {
+    Configuration configuration = new Configuration();
+    configuration.setCacheInvalidationTransport(transport);
+    return configuration;
+  }
+
+  private static Cache addCache(Configuration configuration, String id) {
+    return addCache(configuration, new CacheBuilder(id));
+  }
+
+  private static Cache addCache(Configuration configuration, CacheBuilder builder) {
+    Cache cache = builder.invalidationBus(configuration.getCacheInvalidationBus()).build();
+    configuration.addCache(cache);
+    return cache;
+  }
+
+  private static class CountingTransport extends LoopbackTransport {
+
+    private int published;
+
+    CountingTransport(String channel) {
+      super(channel);
+    }
+
+    @Override
+    public void publish(byte[] message) {
+      published++;
+      super.publish(message);
+    }
+  }
+
+}
@@ -18,6 +18,11 @@ package org.apache.ibatis.cache;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Date;
 
 public class CacheKeyTest {
@@ -80,4 +85,79 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldTestCacheKeysEqualWhateverTheirCapacity() {
+    CacheKey key1 = new CacheKey(1);
+    CacheKey key2 = new CacheKey(20);
+    for (int i = 0; i < 20; i++) {
+      key1.update(i);
+      key2.update(i);
+    }
+    assertEquals(20, key1.getUpdateCount());
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(key1.toString(), key2.toString());
+  }
+
+  @Test
+  public void shouldNotShareElementsWithClone() throws Exception {
+    CacheKey key = new CacheKey(new Object[] { 1, "hello" });
+    CacheKey clone = key.clone();
+    assertEquals(key, clone);
+    clone.update("world");
+    key.update("there");
+    assertFalse(key.equals(clone));
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "world" }), clone);
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "there" }), key);
+  }
+
+  @Test
+  public void shouldSerializeEqualKeysToTheSameBytesWithoutChangingThem() throws Exception {
+    CacheKey key1 = new CacheKey(2);
+    CacheKey key2 = new CacheKey(20);
+    key1.update("hello");
+    key2.update("hello");
+    byte[] bytes1 = serialize(key1);
+    assertTrue(Arrays.equals(bytes1, serialize(key2)));
+    key1.update("world");
+    key2.update("world");
+    assertEquals(key1, key2);
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes1));
+    CacheKey deserialized = (CacheKey) in.readObject();
+    assertEquals(new CacheKey(new Object[] { "hello" }), deserialized);
+    deserialized.update("world");
+    assertEquals(key1, deserialized);
+  }
+
+  @Test
+  public void shouldReadKeysSerializedWithTheListBasedForm() throws Exception {
+    // new CacheKey(new Object[] { "select", 1, null, 2L }) as written by the list based keys
+    String hex = "aced0005737200206f72672e6170616368652e6962617469732e63616368652e43616368654b65790fe9d5b4cd33a882"
+      + "0200054a0008636865636b73756d490005636f756e7449000868617368636f646549000a6d756c7469706c6965724c00"
+      + "0a7570646174654c6973747400104c6a6176612f7574696c2f4c6973743b7870ffffffffc9ff350000000004c6fcdcb6"
+      + "00000025737200136a6176612e7574696c2e41727261794c6973747881d21d99c7619d03000149000473697a65787000"
+      + "00000477040000000474000673656c656374737200116a6176612e6c616e672e496e746567657212e2a0a4f781873802"
+      + "000149000576616c7565787200106a6176612e6c616e672e4e756d62657286ac951d0b94e08b02000078700000000170"
+      + "7372000e6a6176612e6c616e672e4c6f6e673b8be490cc8f23df0200014a000576616c75657871007e00070000000000"
+      + "00000278";
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    CacheKey deserialized = (CacheKey) in.readObject();
+    CacheKey expected = new CacheKey(new Object[] { "select", 1, null, 2L });
+    assertEquals(expected, deserialized);
+    assertEquals(expected.hashCode(), deserialized.hashCode());
+    assertEquals(4, deserialized.getUpdateCount());
+  }
+
+  private byte[] serialize(CacheKey key) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(key);
+    out.close();
+    return bytes.toByteArray();
+  }
+
 }
@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldCountHitsMissesPutsAndClears() {
+    LoggingCache cache = new LoggingCache(new PerpetualCache("default"));
+    cache.putObject("a", "1");
+    cache.getObject("a");
+    cache.getObject("a");
+    cache.getObject("b");
+    cache.clear();
+    CacheStatistics statistics = cache.getStatistics();
+    assertEquals(2, statistics.getHits());
+    assertEquals(1, statistics.getMisses());
+    assertEquals(2.0 / 3.0, statistics.getHitRatio(), 0.0001);
+    assertEquals(1, statistics.getPuts());
+    assertEquals(1, statistics.getClears());
+  }
+
+  @Test
+  public void shouldCountEvictionsOfBuiltCaches() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").size(2).statistics(statistics).build();
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(3, statistics.getEvictions());
+    assertEquals(5, statistics.getPuts());
+    assertEquals(2, statistics.getSize());
+  }
+
+  @Test
+  public void shouldReportWeightAndLoadTimes() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    LruCache lru = new LruCache(new PerpetualCache("default"));
+    lru.setMaxWeight(1000000);
+    statistics.setWeighedCache(lru);
+    lru.putObject("a", "value");
+    assertEquals(lru.getTotalWeight(), statistics.getWeight());
+    assertTrue(statistics.getWeight() > 0);
+    statistics.entryLoaded(2000000);
+    statistics.entryLoaded(4000000);
+    assertEquals(2, statistics.getLoads());
+    assertEquals(3.0, statistics.getAverageLoadTime(), 0.0001);
+    assertEquals(4.0, statistics.getMaxLoadTime(), 0.0001);
+  }
+
+  @Test
+  public void shouldNotifyListeners() {
+    final AtomicInteger events = new AtomicInteger();
+    CacheStatistics statistics = new CacheStatistics("default");
+    statistics.addListener(new CacheStatisticsListener() {
+      @Override
+      public void cacheHit() {
+        events.incrementAndGet();
+      }
+
+      @Override
+      public void cacheMissed() {
+        events.incrementAndGet();
+      }
+
+      @Override
+      public void entryPut() {
+        events.incrementAndGet();
+      }
+
+      @Override
+      public void entryEvicted() {
+        events.incrementAndGet();
+      }
+
+      @Override
+      public void cacheCleared() {
+        events.incrementAndGet();
+      }
+
+      @Override
+      public void entryLoaded(long nanos) {
+        events.incrementAndGet();
+      }
+    });
+    statistics.cacheHit();
+    statistics.cacheMissed();
+    statistics.entryPut();
+    statistics.entryEvicted();
+    statistics.cacheCleared();
+    statistics.entryLoaded(1);
+    assertEquals(6, events.get());
+  }
+
+  @Test
+  public void shouldSumCountsFromManyThreads() throws Exception {
+    final CacheStatistics statistics = new CacheStatistics("default");
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            statistics.cacheHit();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(80000, statistics.getHits());
+  }
+
+}
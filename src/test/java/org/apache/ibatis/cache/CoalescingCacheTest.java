@@ -0,0 +1,211 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.decorators.CoalescingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.junit.Test;
+
+public class CoalescingCacheTest {
+
+  @Test
+  public void shouldRunOneLoaderForConcurrentMisses() throws Exception {
+    final CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    final Callable<Object> loader = new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        loads.incrementAndGet();
+        release.await();
+        return "value";
+      }
+    };
+    final Object[] results = new Object[4];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index] = cache.load("key", loader);
+          } catch (Exception e) {
+            results[index] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    Thread.sleep(200);
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1, loads.get());
+    for (Object result : results) {
+      assertEquals("value", result);
+    }
+    assertNull(cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldGiveEachWaiterItsOwnCopy() throws Exception {
+    final CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    cache.setSerializer(new JavaSerializer());
+    final CountDownLatch release = new CountDownLatch(1);
+    final Callable<Object> loader = new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        release.await();
+        return new ArrayList<String>(Arrays.asList("row"));
+      }
+    };
+    final Object[] results = new Object[3];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index] = cache.load("key", loader);
+          } catch (Exception e) {
+            results[index] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    Thread.sleep(200);
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < results.length; i++) {
+      assertEquals(Arrays.asList("row"), results[i]);
+      for (int j = 0; j < i; j++) {
+        assertNotSame(results[j], results[i]);
+      }
+    }
+  }
+
+  @Test
+  public void shouldPropagateLoaderFailureToWaiters() throws Exception {
+    final CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicReference<Exception> leaderFailure = new AtomicReference<Exception>();
+    Thread leader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.load("key", new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+              started.countDown();
+              release.await();
+              throw new SQLException("boom");
+            }
+          });
+        } catch (Exception e) {
+          leaderFailure.set(e);
+        }
+      }
+    };
+    leader.start();
+    started.await();
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        release.countDown();
+      }
+    };
+    releaser.start();
+    try {
+      cache.load("key", new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          return "own";
+        }
+      });
+      fail("Should have failed with the leader's cause");
+    } catch (CacheException e) {
+      assertTrue(e.getCause() instanceof SQLException);
+    }
+    leader.join();
+    assertTrue(leaderFailure.get() instanceof SQLException);
+    assertEquals("fresh", cache.load("key", new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return "fresh";
+      }
+    }));
+  }
+
+  @Test
+  public void shouldRunOwnLoaderAfterTimeout() throws Exception {
+    final CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    cache.setTimeout(50);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread leader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.load("key", new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+              started.countDown();
+              release.await();
+              return "slow";
+            }
+          });
+        } catch (Exception e) {
+          // ignore
+        }
+      }
+    };
+    leader.start();
+    started.await();
+    Object value = cache.load("key", new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return "own";
+      }
+    });
+    release.countDown();
+    leader.join();
+    assertEquals("own", value);
+  }
+
+}
@@ -0,0 +1,213 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.Test;
+
+public class CompactSerializerTest {
+
+  @Test
+  public void shouldCopyScalarValues() {
+    CompactSerializer serializer = new CompactSerializer();
+    Timestamp timestamp = new Timestamp(1000L);
+    timestamp.setNanos(123456789);
+    Object[] values = { "text", 1, -1L, Long.MAX_VALUE, 1.5d, 2.5f, (short) 3, (byte) 4, 'c', true,
+        new BigDecimal("-12345.6789"), new Date(42L), timestamp, new java.sql.Date(43L), Section.NEWS };
+    for (Object value : values) {
+      assertEquals(value, serializer.deserialize(serializer.serialize(value)));
+    }
+    assertNull(serializer.deserialize(serializer.serialize(null)));
+  }
+
+  @Test
+  public void shouldCopyBeansAndKeepSharedReferences() {
+    CompactSerializer serializer = new CompactSerializer();
+    Author author = new Author();
+    author.setName("clinton");
+    List<Post> posts = new ArrayList<Post>();
+    for (int i = 0; i < 3; i++) {
+      Post post = new Post();
+      post.setId(i);
+      post.setAuthor(author);
+      post.setSection(Section.VIDEOS);
+      post.setAmount(new BigDecimal(i));
+      posts.add(post);
+    }
+    author.setPosts(posts);
+
+    @SuppressWarnings("unchecked")
+    List<Post> copy = (List<Post>) serializer.deserialize(serializer.serialize(posts));
+    assertNotSame(posts, copy);
+    assertEquals(3, copy.size());
+    assertEquals(2, copy.get(2).getId());
+    assertEquals(new BigDecimal(2), copy.get(2).getAmount());
+    assertEquals(Section.VIDEOS, copy.get(0).getSection());
+    assertNotSame(author, copy.get(0).getAuthor());
+    assertEquals("clinton", copy.get(0).getAuthor().getName());
+    assertSame(copy.get(0).getAuthor(), copy.get(1).getAuthor());
+    assertSame(copy, copy.get(0).getAuthor().getPosts());
+  }
+
+  @Test
+  public void shouldFallBackToJavaSerializationForOtherTypes() {
+    CompactSerializer serializer = new CompactSerializer();
+    Map<String, Object> map = new LinkedHashMap<String, Object>();
+    TreeMap<String, Integer> sorted = new TreeMap<String, Integer>();
+    sorted.put("b", 2);
+    sorted.put("a", 1);
+    map.put("sorted", sorted);
+    map.put("again", sorted);
+    @SuppressWarnings("unchecked")
+    Map<String, Object> copy = (Map<String, Object>) serializer.deserialize(serializer.serialize(map));
+    assertEquals(map, copy);
+    assertSame(copy.get("sorted"), copy.get("again"));
+  }
+
+  @Test
+  public void shouldBeUsableBySerializedCache() {
+    Cache cache = new SerializedCache(new PerpetualCache("default"), new CompactSerializer());
+    Author author = new Author();
+    author.setName("eduardo");
+    cache.putObject(0, author);
+    Author copy = (Author) cache.getObject(0);
+    assertNotSame(author, copy);
+    assertEquals("eduardo", copy.getName());
+  }
+
+  @Test
+  public void shouldNotCopyTransientFields() {
+    Cache cache = new SerializedCache(new PerpetualCache("default"), new CompactSerializer());
+    Session session = new Session();
+    session.setUser("clinton");
+    session.connection = new Object();
+    cache.putObject(0, session);
+    Session copy = (Session) cache.getObject(0);
+    assertEquals("clinton", copy.getUser());
+    assertNull(copy.connection);
+  }
+
+  @Test
+  public void shouldNotCopyStaticFields() {
+    CompactSerializer serializer = new CompactSerializer();
+    Session session = new Session();
+    session.setUser("eduardo");
+    Session.instances = 1;
+    byte[] bytes = serializer.serialize(session);
+    Session.instances = 2;
+    Session copy = (Session) serializer.deserialize(bytes);
+    assertEquals("eduardo", copy.getUser());
+    assertEquals(2, Session.instances);
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableValues() {
+    new CompactSerializer().serialize(new Object());
+  }
+
+  public static class Author implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String name;
+    private List<Post> posts;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public List<Post> getPosts() {
+      return posts;
+    }
+
+    public void setPosts(List<Post> posts) {
+      this.posts = posts;
+    }
+  }
+
+  public static class Session implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static int instances;
+    private String user;
+    private transient Object connection;
+
+    public String getUser() {
+      return user;
+    }
+
+    public void setUser(String user) {
+      this.user = user;
+    }
+  }
+
+  public static class Post implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private int id;
+    private Author author;
+    private Section section;
+    private BigDecimal amount;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public Author getAuthor() {
+      return author;
+    }
+
+    public void setAuthor(Author author) {
+      this.author = author;
+    }
+
+    public Section getSection() {
+      return section;
+    }
+
+    public void setSection(Section section) {
+      this.section = section;
+    }
+
+    public BigDecimal getAmount() {
+      return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+      this.amount = amount;
+    }
+  }
+
+}
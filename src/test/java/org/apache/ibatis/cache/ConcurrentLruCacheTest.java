@@ -0,0 +1,147 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class ConcurrentLruCacheTest {
+
+  @Test
+  public void shouldRemoveLeastRecentlyUsedItemInBeyondFiveEntries() {
+    ConcurrentLruCache cache = new ConcurrentLruCache(new PerpetualCache("default"));
+    cache.setSize(5);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(0, cache.getObject(0));
+    cache.putObject(5, 5);
+    assertNull(cache.getObject(1));
+    assertEquals(5, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new ConcurrentLruCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new ConcurrentLruCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+  @Test
+  public void shouldStoreNullValues() {
+    Cache cache = new ConcurrentLruCache(new PerpetualCache("default"));
+    cache.putObject(0, null);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldStayWithinSizeUnderConcurrentAccess() throws Exception {
+    final ConcurrentLruCache cache = new ConcurrentLruCache(new PerpetualCache("default"));
+    cache.setSize(100);
+    final int threads = 8;
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicInteger errors = new AtomicInteger();
+    for (int t = 0; t < threads; t++) {
+      final int seed = t;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 20000; i++) {
+              Integer key = (i * 31 + seed) % 500;
+              Object value = cache.getObject(key);
+              if (value == null) {
+                cache.putObject(key, key);
+              } else if (!value.equals(key)) {
+                errors.incrementAndGet();
+              }
+            }
+          } catch (RuntimeException e) {
+            errors.incrementAndGet();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    done.await();
+    assertEquals(0, errors.get());
+    assertTrue(cache.getSize() <= 100);
+  }
+
+  @Test
+  public void shouldRemoveLeastRecentlyUsedItemsBeyondMaxWeight() {
+    ConcurrentLruCache cache = new ConcurrentLruCache(new PerpetualCache("default"));
+    cache.setMaxWeight(10);
+    cache.setWeigher(new Weigher() {
+      @Override
+      public long weigh(Object key, Object value) {
+        return ((Integer) value).longValue();
+      }
+    });
+    cache.putObject(0, 4);
+    cache.putObject(1, 4);
+    assertEquals(4, cache.getObject(0));
+    cache.putObject(2, 4);
+    assertNull(cache.getObject(1));
+    assertEquals(8, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldNotCacheItemsHeavierThanMaxWeight() {
+    ConcurrentLruCache cache = new ConcurrentLruCache(new PerpetualCache("default"));
+    cache.setMaxWeight(10);
+    cache.setWeigher(new Weigher() {
+      @Override
+      public long weigh(Object key, Object value) {
+        return ((Integer) value).longValue();
+      }
+    });
+    cache.putObject(0, 4);
+    cache.putObject(1, 4);
+    cache.putObject(2, 11);
+    assertNull(cache.getObject(2));
+    assertEquals(4, cache.getObject(0));
+    assertEquals(4, cache.getObject(1));
+    assertEquals(8, cache.getTotalWeight());
+    cache.putObject(1, 11);
+    assertNull(cache.getObject(1));
+    assertEquals(4, cache.getObject(0));
+    assertEquals(4, cache.getTotalWeight());
+  }
+}
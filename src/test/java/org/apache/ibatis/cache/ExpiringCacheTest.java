@@ -0,0 +1,101 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  @Test
+  public void shouldExpireEntriesAfterWrite() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setExpireAfterWrite(100);
+    cache.putObject(0, 0);
+    Thread.sleep(50);
+    cache.putObject(1, 1);
+    assertEquals(0, cache.getObject(0));
+    Thread.sleep(75);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldKeepEntriesThatAreReadBeforeTheyExpire() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setExpireAfterAccess(100);
+    cache.putObject(0, 0);
+    for (int i = 0; i < 6; i++) {
+      Thread.sleep(40);
+      assertEquals(0, cache.getObject(0));
+    }
+    Thread.sleep(150);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldRemoveExpiredEntriesThatAreNotReadAgain() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new LruCache(new PerpetualCache("default")));
+    cache.setExpireAfterWrite(50);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    Thread.sleep(100);
+    cache.putObject(100, 100);
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldNotCountEntriesEvictedUnderneathAsExpired() throws Exception {
+    LruCache lru = new LruCache(new PerpetualCache("default"));
+    lru.setSize(2);
+    ExpiringCache cache = new ExpiringCache(lru);
+    CacheStatistics statistics = new CacheStatistics("default");
+    cache.setEvictionListener(statistics);
+    cache.setExpireAfterWrite(50);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    Thread.sleep(100);
+    assertNull(cache.getObject(0));
+    assertEquals(2, statistics.getEvictions());
+  }
+
+  @Test
+  public void shouldSpreadExpiryWithJitter() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setExpireAfterWrite(1000);
+    cache.setJitter(900);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    Thread.sleep(600);
+    int expired = 0;
+    for (int i = 0; i < 100; i++) {
+      if (cache.getObject(i) == null) {
+        expired++;
+      }
+    }
+    assertTrue(expired > 0);
+    assertTrue(expired < 100);
+  }
+
+}
@@ -57,4 +57,49 @@ public class FifoCacheTest {
     assertNull(cache.getObject(4));
   }
 
+  @Test
+  public void shouldRemoveFirstItemsBeyondMaxWeight() {
+    FifoCache cache = new FifoCache(new PerpetualCache("default"));
+    cache.setMaxWeight(10);
+    cache.setWeigher(new Weigher() {
+      @Override
+      public long weigh(Object key, Object value) {
+        return ((Integer) value).longValue();
+      }
+    });
+    cache.putObject(0, 4);
+    cache.putObject(1, 4);
+    assertEquals(4, cache.getObject(0));
+    cache.putObject(2, 4);
+    assertNull(cache.getObject(0));
+    assertEquals(8, cache.getTotalWeight());
+    cache.removeObject(1);
+    assertEquals(4, cache.getTotalWeight());
+    cache.putObject(3, 11);
+    assertEquals(1, cache.getSize());
+    assertEquals(4, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldNotCacheItemsHeavierThanMaxWeight() {
+    FifoCache cache = new FifoCache(new PerpetualCache("default"));
+    cache.setMaxWeight(10);
+    cache.setWeigher(new Weigher() {
+      @Override
+      public long weigh(Object key, Object value) {
+        return ((Integer) value).longValue();
+      }
+    });
+    cache.putObject(0, 4);
+    cache.putObject(1, 4);
+    cache.putObject(2, 11);
+    assertNull(cache.getObject(2));
+    assertEquals(4, cache.getObject(0));
+    assertEquals(4, cache.getObject(1));
+    assertEquals(8, cache.getTotalWeight());
+    cache.putObject(1, 11);
+    assertNull(cache.getObject(1));
+    assertEquals(4, cache.getObject(0));
+    assertEquals(4, cache.getTotalWeight());
+  }
 }
@@ -15,7 +15,11 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.EstimatingWeigher;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -57,4 +61,64 @@ public class LruCacheTest {
     assertNull(cache.getObject(4));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void shouldRemoveLeastRecentlyUsedItemsBeyondMaxWeight() {
+    LruCache cache = new LruCache(new PerpetualCache("default"));
+    cache.setMaxWeight(10);
+    cache.setWeigher(new Weigher() {
+      @Override
+      public long weigh(Object key, Object value) {
+        return ((Integer) value).longValue();
+      }
+    });
+    cache.putObject(0, 4);
+    cache.putObject(1, 4);
+    assertEquals(4, cache.getObject(0));
+    cache.putObject(2, 4);
+    assertNull(cache.getObject(1));
+    assertEquals(8, cache.getTotalWeight());
+    cache.putObject(3, 9);
+    assertEquals(1, cache.getSize());
+    assertEquals(9, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldNotCacheItemsHeavierThanMaxWeight() {
+    LruCache cache = new LruCache(new PerpetualCache("default"));
+    cache.setMaxWeight(10);
+    cache.setWeigher(new Weigher() {
+      @Override
+      public long weigh(Object key, Object value) {
+        return ((Integer) value).longValue();
+      }
+    });
+    cache.putObject(0, 4);
+    cache.putObject(1, 4);
+    cache.putObject(2, 11);
+    assertNull(cache.getObject(2));
+    assertEquals(4, cache.getObject(0));
+    assertEquals(4, cache.getObject(1));
+    assertEquals(8, cache.getTotalWeight());
+    cache.putObject(1, 11);
+    assertNull(cache.getObject(1));
+    assertEquals(4, cache.getObject(0));
+    assertEquals(4, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldWeighListsByTheirSize() {
+    Weigher weigher = new EstimatingWeigher();
+    List<String> small = new ArrayList<String>();
+    List<String> large = new ArrayList<String>();
+    for (int i = 0; i < 10000; i++) {
+      if (i < 10) {
+        small.add("row" + i);
+      }
+      large.add("row" + i);
+    }
+    long smallWeight = weigher.weigh(0, small);
+    long largeWeight = weigher.weigh(1, large);
+    assertTrue(smallWeight > 0);
+    assertTrue(largeWeight > 500 * smallWeight);
+  }
+}
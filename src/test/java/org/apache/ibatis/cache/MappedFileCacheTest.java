@@ -0,0 +1,183 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedFileCacheTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("mybatis-cache", ".cache");
+    file.deleteOnExit();
+  }
+
+  @Test
+  public void shouldShareEntriesBetweenCachesMappingSameFile() {
+    MappedFileCache writer = newCache(1024 * 1024);
+    MappedFileCache reader = newCache(1024 * 1024);
+    List<String> value = new ArrayList<String>();
+    value.add("a");
+    writer.putObject(new CacheKey(new Object[] { "select", 1 }), value);
+    Object copy = reader.getObject(new CacheKey(new Object[] { "select", 1 }));
+    assertEquals(value, copy);
+    assertNotSame(value, copy);
+    assertNull(reader.getObject(new CacheKey(new Object[] { "select", 2 })));
+    assertEquals(1, reader.getSize());
+  }
+
+  @Test
+  public void shouldFindEqualKeysWhateverTheirCapacity() throws Exception {
+    MappedFileCache cache = newCache(1024 * 1024);
+    CacheKey key = new CacheKey(new Object[] { "select", 1 });
+    cache.putObject(key, "value");
+    assertEquals("value", cache.getObject(key.clone()));
+  }
+
+  @Test
+  public void shouldClearForEveryCacheMappingSameFile() {
+    MappedFileCache writer = newCache(1024 * 1024);
+    MappedFileCache reader = newCache(1024 * 1024);
+    writer.putObject(0, 0);
+    long generation = reader.getGeneration();
+    reader.clear();
+    assertNull(writer.getObject(0));
+    assertEquals(generation + 1, writer.getGeneration());
+    assertEquals(0, writer.getSize());
+    writer.putObject(0, 1);
+    assertEquals(1, reader.getObject(0));
+  }
+
+  @Test
+  public void shouldReplaceValueOfSameKey() {
+    MappedFileCache cache = newCache(1024 * 1024);
+    cache.putObject("key", "first");
+    cache.putObject("key", "second");
+    assertEquals("second", cache.getObject("key"));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldOverwriteOldestEntriesBeyondCapacity() {
+    MappedFileCache cache = newCache(8192);
+    for (int i = 0; i < 200; i++) {
+      cache.putObject(i, "value " + i);
+    }
+    assertNull(cache.getObject(0));
+    assertEquals("value 199", cache.getObject(199));
+    assertTrue(cache.getSize() < 200);
+  }
+
+  @Test
+  public void shouldNotStoreValuesLargerThanQuarterOfCapacity() {
+    MappedFileCache cache = newCache(8192);
+    cache.putObject("key", "small");
+    cache.putObject("key", new byte[4096]);
+    assertNull(cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    MappedFileCache cache = newCache(1024 * 1024);
+    cache.putObject(0, 0);
+    assertEquals(0, cache.removeObject(0));
+    assertNull(cache.getObject(0));
+    cache.putObject(1, 1);
+    cache.putObject(1, null);
+    assertNull(cache.getObject(1));
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectFileCreatedWithOtherSizes() {
+    newCache(1024 * 1024).initialize();
+    newCache(2048 * 1024).initialize();
+  }
+
+  @Test
+  public void shouldNeverReadValueOfOtherKeyWhileWritten() throws Exception {
+    final MappedFileCache writer = newCache(16 * 1024);
+    final MappedFileCache reader = newCache(16 * 1024);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    Thread writing = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 20000; i++) {
+          writer.putObject(i % 300, "value " + (i % 300));
+        }
+      }
+    };
+    writing.start();
+    while (writing.isAlive()) {
+      for (int i = 0; i < 300; i++) {
+        Object value = reader.getObject(i);
+        if (value != null && !value.equals("value " + i)) {
+          failure.set(i + " read " + value);
+        }
+      }
+    }
+    writing.join();
+    assertNull(failure.get());
+  }
+
+  @Test
+  public void shouldTakeTheSerializerOfTheCache() {
+    Properties props = new Properties();
+    props.setProperty("file", file.getPath());
+    props.setProperty("slots", "1024");
+    Cache cache = new CacheBuilder("default").implementation(MappedFileCache.class).serializer(CompactSerializer.class)
+        .properties(props).build();
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+    assertTrue(SystemMetaObject.forObject(cache).getValue("delegate.serializer") instanceof CompactSerializer);
+  }
+
+  @Test
+  public void shouldCloseTheFileAndMapItAgainWhenUsed() {
+    MappedFileCache cache = newCache(1024 * 1024);
+    cache.putObject(0, "value");
+    FileChannel channel = (FileChannel) SystemMetaObject.forObject(cache).getValue("channel");
+    cache.close();
+    assertFalse(channel.isOpen());
+    cache.close();
+    assertEquals("value", cache.getObject(0));
+    cache.close();
+  }
+
+  private MappedFileCache newCache(long capacity) {
+    MappedFileCache cache = new MappedFileCache("default");
+    cache.setFile(file.getPath());
+    cache.setCapacity(capacity);
+    cache.setSlots(1024);
+    return cache;
+  }
+
+}
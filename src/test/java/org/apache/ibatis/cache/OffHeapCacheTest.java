@@ -0,0 +1,117 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfStoredValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<String>();
+    value.add("a");
+    cache.putObject(new CacheKey(new Object[] { "select", 1 }), value);
+    Object copy = cache.getObject(new CacheKey(new Object[] { "select", 1 }));
+    assertEquals(value, copy);
+    assertNotSame(value, copy);
+    assertNull(cache.getObject(new CacheKey(new Object[] { "select", 2 })));
+  }
+
+  @Test
+  public void shouldStoreValuesLargerThanOneBlock() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setBlockSize(64);
+    cache.setSlabSize(256);
+    cache.setCapacity(64 * 1024);
+    cache.initialize();
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      value.append(i);
+    }
+    cache.putObject(0, value.toString());
+    assertEquals(value.toString(), cache.getObject(0));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedBeyondCapacity() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setBlockSize(256);
+    cache.setSlabSize(1024);
+    cache.setCapacity(2048);
+    cache.initialize();
+    for (int i = 0; i < 8; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(8, cache.getSize());
+    assertEquals(0, cache.getObject(0));
+    cache.putObject(8, 8);
+    assertEquals(8, cache.getSize());
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(2048, cache.getUsedBytes());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new OffHeapCache("default");
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    OffHeapCache cache = new OffHeapCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getUsedBytes());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectNonSerializableValues() {
+    Cache cache = new OffHeapCache("default");
+    cache.putObject(0, new Object());
+  }
+
+  @Test
+  public void shouldTakeTheSerializerFromTheCacheProperties() {
+    Properties props = new Properties();
+    props.setProperty("serializer", CompactSerializer.class.getName());
+    Cache cache = new CacheBuilder("default").implementation(OffHeapCache.class).properties(props).build();
+    cache.putObject(0, "value");
+    assertEquals("value", cache.getObject(0));
+    assertTrue(SystemMetaObject.forObject(cache).getValue("delegate.serializer") instanceof CompactSerializer);
+  }
+
+}
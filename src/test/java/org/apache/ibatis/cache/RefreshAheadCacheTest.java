@@ -0,0 +1,154 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class RefreshAheadCacheTest {
+
+  @Test
+  public void shouldServeStaleValueWhileRefreshing() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setRefreshAfterWrite(50);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    cache.register("key", new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        loads.incrementAndGet();
+        release.await();
+        return "fresh";
+      }
+    });
+    cache.putObject("key", "stale");
+    assertEquals("stale", cache.getObject("key"));
+    Thread.sleep(100);
+    assertEquals("stale", cache.getObject("key"));
+    assertEquals("stale", cache.getObject("key"));
+    release.countDown();
+    waitFor(cache, "key", "fresh");
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void shouldKeepStaleValueWhenRefreshFails() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setRefreshAfterWrite(50);
+    final CountDownLatch failed = new CountDownLatch(1);
+    cache.register("key", new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        failed.countDown();
+        throw new SQLException("boom");
+      }
+    });
+    cache.putObject("key", "stale");
+    Thread.sleep(100);
+    assertEquals("stale", cache.getObject("key"));
+    assertTrue(failed.await(1, TimeUnit.SECONDS));
+    Thread.sleep(20);
+    assertEquals("stale", cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldDiscardRefreshStartedBeforeClear() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setRefreshAfterWrite(50);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    cache.register("key", new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        started.countDown();
+        release.await();
+        done.countDown();
+        return "fresh";
+      }
+    });
+    cache.putObject("key", "stale");
+    Thread.sleep(100);
+    cache.getObject("key");
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    cache.clear();
+    release.countDown();
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertNull(cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldNotRefreshUnregisteredKeys() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setRefreshAfterWrite(10);
+    cache.putObject("key", "value");
+    Thread.sleep(30);
+    assertEquals("value", cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldOnlyMakeRoomForNewKeysByDroppingIdleOnes() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setRefreshAfterWrite(100);
+    cache.setRefreshCapacity(1);
+    final AtomicInteger loads = new AtomicInteger();
+    Callable<Object> loader = new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        loads.incrementAndGet();
+        return "fresh";
+      }
+    };
+    assertFalse(new RefreshAheadCache(new PerpetualCache("other")).canRegister("key"));
+    assertTrue(cache.canRegister("hot"));
+    cache.register("hot", loader);
+    cache.putObject("hot", "stale");
+    assertTrue(cache.canRegister("hot"));
+    assertFalse(cache.canRegister("cold"));
+    cache.register("cold", loader);
+    cache.putObject("cold", "stale");
+    // due, but not idle for a whole period
+    Thread.sleep(130);
+    assertFalse(cache.canRegister("cold"));
+    // idle for more than a period
+    Thread.sleep(130);
+    assertTrue(cache.canRegister("cold"));
+    cache.register("cold", loader);
+    cache.putObject("cold", "stale");
+    Thread.sleep(130);
+    waitFor(cache, "cold", "fresh");
+    assertEquals("stale", cache.getObject("hot"));
+    assertEquals(1, loads.get());
+  }
+
+  private static void waitFor(Cache cache, Object key, Object expected) throws InterruptedException {
+    for (int i = 0; i < 100 && !expected.equals(cache.getObject(key)); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, cache.getObject(key));
+  }
+
+}
@@ -0,0 +1,78 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class SqlTablesTest {
+
+  @Test
+  public void shouldFindTablesOfJoinsAndFromLists() {
+    assertRead("select * from blog b join author a on a.id = b.author_id, post p where p.blog_id = b.id",
+        "AUTHOR", "BLOG", "POST");
+    assertRead("SELECT b.* FROM Blog AS b LEFT OUTER JOIN \"Comment\" c USING (id) ORDER BY b.id, c.id",
+        "BLOG", "COMMENT");
+  }
+
+  @Test
+  public void shouldFindTablesOfSubqueries() {
+    assertRead("select * from (select id from blog where x in (select id from tag)) t, author a where t.id in (?, ?)",
+        "AUTHOR", "BLOG", "TAG");
+    assertRead("with recent as (select * from post) select * from recent r join author a on r.author_id = a.id",
+        "AUTHOR", "POST", "RECENT");
+  }
+
+  @Test
+  public void shouldStripSchemasAndIgnoreFunctionsCommentsAndLiterals() {
+    assertRead("select * /* from hidden */ from dbo.[Blog] -- from other\n where name = 'from x' and id = ?", "BLOG");
+    assertRead("select * from table(fn(?)) t, generate_series(1, 3) s");
+    assertRead("select count(*) from public.\"order\" for update", "ORDER");
+  }
+
+  @Test
+  public void shouldFindWrittenTables() {
+    assertWritten("insert into blog (id, title) values (?, ?)", "BLOG");
+    assertWritten("INSERT IGNORE INTO Blog (id) SELECT id FROM draft", "BLOG");
+    assertEquals(Collections.singleton("DRAFT"), SqlTables.parse("insert into blog select * from draft").getReadTables());
+    assertWritten("update blog set title = (select max(title) from post) where id = ?", "BLOG");
+    assertWritten("delete from post where blog_id = ?", "POST");
+    assertWritten("insert into blog (id) values (?) on duplicate key update title = ?", "BLOG");
+    assertWritten("merge into blog b using draft d on (b.id = d.id) when matched then update set b.title = d.title", "BLOG");
+    assertWritten("truncate table tag", "TAG");
+  }
+
+  @Test
+  public void shouldNotKnowOtherStatements() {
+    assertNull(SqlTables.parse("{call refresh_blogs(?)}"));
+    assertNull(SqlTables.parse("exec refresh_blogs"));
+    assertNull(SqlTables.parse("create table blog (id int)"));
+  }
+
+  private static void assertRead(String sql, String... tables) {
+    assertEquals(new TreeSet<String>(Arrays.asList(tables)), SqlTables.parse(sql).getReadTables());
+  }
+
+  private static void assertWritten(String sql, String... tables) {
+    assertEquals(new TreeSet<String>(Arrays.asList(tables)), SqlTables.parse(sql).getWrittenTables());
+  }
+
+}
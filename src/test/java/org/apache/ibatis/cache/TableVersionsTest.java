@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TableVersionsTest {
+
+  private final CacheKey key = new CacheKey(new Object[] { "select", 1 });
+
+  @Test
+  public void shouldInvalidateOnlyKeysOfWrittenTables() {
+    TableVersions versions = new TableVersions();
+    Set<String> blogs = versions.getTables("select * from blog").getReadTables();
+    Set<String> authors = versions.getTables("select * from author").getReadTables();
+    CacheKey blogKey = versions.versionedKey(key, blogs);
+    CacheKey authorKey = versions.versionedKey(key, authors);
+    versions.written(versions.getTables("update blog set title = ?").getWrittenTables());
+    assertFalse(blogKey.equals(versions.versionedKey(key, blogs)));
+    assertEquals(authorKey, versions.versionedKey(key, authors));
+  }
+
+  @Test
+  public void shouldInvalidateUnknownQueriesOnEveryWrite() {
+    TableVersions versions = new TableVersions();
+    CacheKey unknownKey = versions.versionedKey(key, null);
+    versions.written(Collections.singleton("BLOG"));
+    assertFalse(unknownKey.equals(versions.versionedKey(key, null)));
+  }
+
+  @Test
+  public void shouldInvalidateEverythingOnUnknownWrite() {
+    TableVersions versions = new TableVersions();
+    Set<String> authors = Collections.singleton("AUTHOR");
+    CacheKey authorKey = versions.versionedKey(key, authors);
+    assertNull(versions.getTables("{call purge()}"));
+    versions.written(null);
+    assertFalse(authorKey.equals(versions.versionedKey(key, authors)));
+  }
+
+  @Test
+  public void shouldNotChangeTheOriginalKey() {
+    TableVersions versions = new TableVersions();
+    CacheKey copy = new CacheKey(new Object[] { "select", 1 });
+    versions.versionedKey(key, Collections.singleton("BLOG"));
+    assertEquals(copy, key);
+  }
+
+}
@@ -0,0 +1,57 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldPlaceEveryValueInsideItsBucket() {
+    long[] values = { 0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE };
+    for (long value : values) {
+      int index = LatencyHistogram.indexOf(value);
+      assertTrue(value <= LatencyHistogram.upperBoundOf(index));
+      assertTrue(index == 0 || value > LatencyHistogram.upperBoundOf(index - 1));
+    }
+  }
+
+  @Test
+  public void shouldReportPercentilesWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000000L);
+    }
+    LatencySnapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(1000.0, snapshot.getMax(), 0.0);
+    assertEquals(500.5, snapshot.getMean(), 0.001);
+    assertEquals(500.0, snapshot.getMedian(), 500.0 * 0.125);
+    assertEquals(990.0, snapshot.getPercentile99(), 990.0 * 0.125);
+  }
+
+  @Test
+  public void shouldReportZerosWhenEmpty() {
+    LatencySnapshot snapshot = new LatencyHistogram().snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0.0, snapshot.getMedian(), 0.0);
+    assertEquals(0.0, snapshot.getMax(), 0.0);
+  }
+
+}
@@ -0,0 +1,31 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Lets tests of other packages run the maintenance of a pool when they need it, instead of polling
+ * until the housekeeper has run.
+ */
+public final class PoolHousekeeping {
+
+  private PoolHousekeeping() {
+  }
+
+  public static void runNow(PooledDataSource dataSource) throws InterruptedException {
+    PoolHousekeeper.runNow(dataSource);
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Measures the cost of a call on a pooled connection, comparing the {@link LeasedConnection} wrapper with
+ * the dynamic proxy dispatch the pool used before. Both wrap the same stub driver connection, which answers
+ * at once, so the difference between the two is the overhead of the dispatch. Not run by the build; start it
+ * with {@code main}.
+ */
+public class PooledConnectionBenchmark {
+
+  private static final int CALLS = 10000000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    Connection stub = newStubConnection();
+    Connection wrapper = new PooledConnection(stub, new PooledDataSource()).lease(false);
+    Connection proxy = newDynamicProxy(stub);
+    for (int round = 1; round <= ROUNDS; round++) {
+      long stubNanos = run(stub);
+      long proxyNanos = run(proxy);
+      long wrapperNanos = run(wrapper);
+      System.out.println("round " + round
+          + ": dynamic proxy +" + format(proxyNanos - stubNanos) + " ns/call"
+          + ", wrapper +" + format(wrapperNanos - stubNanos) + " ns/call");
+    }
+  }
+
+  private static long run(Connection connection) throws SQLException {
+    int sink = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      if (connection.getAutoCommit()) {
+        sink++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if (sink == -1) {
+      System.out.println(sink);
+    }
+    return elapsed;
+  }
+
+  private static String format(long nanos) {
+    return String.format("%.2f", (double) nanos / CALLS);
+  }
+
+  private static Connection newStubConnection() {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("hashCode".equals(method.getName())) {
+              return System.identityHashCode(proxy);
+            }
+            return "getAutoCommit".equals(method.getName()) ? Boolean.TRUE : null;
+          }
+        });
+  }
+
+  /*
+   * Reproduces the dispatch of the former InvocationHandler based PooledConnection
+   */
+  private static Connection newDynamicProxy(final Connection realConnection) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+          private volatile boolean valid = true;
+
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if ("close".hashCode() == methodName.hashCode() && "close".equals(methodName)) {
+              valid = false;
+              return null;
+            }
+            try {
+              if (!Object.class.equals(method.getDeclaringClass()) && !valid) {
+                throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
+              }
+              return method.invoke(realConnection, args);
+            } catch (Throwable t) {
+              throw ExceptionUtil.unwrapThrowable(t);
+            }
+          }
+        });
+  }
+
+}
@@ -0,0 +1,255 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.SelectKey;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RoutingDataSourceTest {
+
+  public interface SourceMapper {
+    @Select("select name from source")
+    String getSourceName();
+
+    @Insert("insert into source (name) values (#{name})")
+    int insertSource(String name);
+
+    @Select("select count(*) from source")
+    int countSources();
+
+    @Insert("insert into source (name) values (#{name})")
+    @SelectKey(statement = "select name from source", keyProperty = "name", before = true, resultType = String.class)
+    int insertSourceNamedAfterKey(Source source);
+  }
+
+  public static class Source {
+    private String name;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+
+  private static PooledDataSource primary;
+  private static PooledDataSource replica1;
+  private static PooledDataSource replica2;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    primary = createDatabase("primary");
+    replica1 = createDatabase("replica1");
+    replica2 = createDatabase("replica2");
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    primary.forceCloseAll();
+    replica1.forceCloseAll();
+    replica2.forceCloseAll();
+  }
+
+  private static PooledDataSource createDatabase(String name) throws SQLException {
+    PooledDataSource ds = new PooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:routing_" + name, "sa", "");
+    Connection conn = ds.getConnection();
+    try {
+      Statement st = conn.createStatement();
+      st.execute("drop table source if exists");
+      st.execute("create table source (name varchar(20))");
+      st.execute("insert into source (name) values ('" + name + "')");
+      st.close();
+    } finally {
+      conn.close();
+    }
+    return ds;
+  }
+
+  private SqlSessionFactory createSqlSessionFactory(LoadBalance loadBalance) {
+    RoutingDataSource ds = new RoutingDataSource(primary, Arrays.<DataSource>asList(replica1, replica2), loadBalance);
+    Configuration configuration = new Configuration(new Environment("routing", new JdbcTransactionFactory(), ds));
+    configuration.addMapper(SourceMapper.class);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  private String readSourceName(SqlSessionFactory sqlSessionFactory) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(SourceMapper.class).getSourceName();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldReadFromReplicasInTurn() {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(LoadBalance.ROUND_ROBIN);
+    assertEquals("replica1", readSourceName(sqlSessionFactory));
+    assertEquals("replica2", readSourceName(sqlSessionFactory));
+    assertEquals("replica1", readSourceName(sqlSessionFactory));
+  }
+
+  @Test
+  public void shouldReadFromTheLeastActiveReplica() {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(LoadBalance.LEAST_ACTIVE);
+    SqlSession busy = sqlSessionFactory.openSession();
+    try {
+      assertEquals("replica1", busy.getMapper(SourceMapper.class).getSourceName());
+      assertEquals("replica2", readSourceName(sqlSessionFactory));
+      assertEquals("replica2", readSourceName(sqlSessionFactory));
+    } finally {
+      busy.close();
+    }
+  }
+
+  @Test
+  public void shouldStayOnPrimaryWhenTransactionStartsWithAWrite() {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(LoadBalance.ROUND_ROBIN);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      SourceMapper mapper = sqlSession.getMapper(SourceMapper.class);
+      mapper.insertSource("new");
+      assertEquals(2, mapper.countSources());
+      sqlSession.rollback(true);
+      assertEquals(1, mapper.countSources());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldMoveToPrimaryOnTheFirstWrite() throws SQLException {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(LoadBalance.ROUND_ROBIN);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      SourceMapper mapper = sqlSession.getMapper(SourceMapper.class);
+      assertTrue(mapper.getSourceName().startsWith("replica"));
+      mapper.insertSource("new");
+      assertEquals(2, mapper.countSources());
+      sqlSession.rollback(true);
+      assertEquals(1, mapper.countSources());
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(1, countRows(replica1));
+    assertEquals(1, countRows(replica2));
+  }
+
+  @Test
+  public void shouldRouteAgainAfterCommit() {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(LoadBalance.ROUND_ROBIN);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      SourceMapper mapper = sqlSession.getMapper(SourceMapper.class);
+      assertEquals("replica1", mapper.getSourceName());
+      sqlSession.commit();
+      assertEquals("replica2", mapper.getSourceName());
+      sqlSession.rollback();
+      assertEquals("replica1", mapper.getSourceName());
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(0, replica1.getPoolState().getActiveConnectionCount());
+    assertEquals(0, replica2.getPoolState().getActiveConnectionCount());
+  }
+
+  @Test
+  public void shouldRunSelectKeyOnPrimary() throws SQLException {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(LoadBalance.ROUND_ROBIN);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      SourceMapper mapper = sqlSession.getMapper(SourceMapper.class);
+      Source source = new Source();
+      mapper.insertSourceNamedAfterKey(source);
+      assertEquals("primary", source.getName());
+      assertEquals(2, mapper.countSources());
+      sqlSession.rollback(true);
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(1, countRows(replica1));
+    assertEquals(1, countRows(replica2));
+  }
+
+  private static int countRows(DataSource ds) throws SQLException {
+    Connection conn = ds.getConnection();
+    try {
+      ResultSet rs = conn.createStatement().executeQuery("select count(*) from source");
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      conn.close();
+    }
+  }
+
+  @Test
+  public void shouldUsePrimaryWithoutAStatement() throws SQLException {
+    RoutingDataSource ds = new RoutingDataSource(primary, Arrays.<DataSource>asList(replica1, replica2));
+    Connection conn = ds.getConnection();
+    try {
+      assertEquals(PooledDataSource.unwrapConnection(conn).getMetaData().getURL(), primary.getUrl());
+    } finally {
+      conn.close();
+    }
+  }
+
+  @Test
+  public void shouldBuildReplicasFromProperties() {
+    Properties props = new Properties();
+    props.setProperty("primary.driver", "org.hsqldb.jdbcDriver");
+    props.setProperty("primary.url", "jdbc:hsqldb:mem:routing_primary");
+    props.setProperty("primary.username", "sa");
+    props.setProperty("replica.r1.driver", "org.hsqldb.jdbcDriver");
+    props.setProperty("replica.r1.url", "jdbc:hsqldb:mem:routing_replica1");
+    props.setProperty("replica.r2.driver", "org.hsqldb.jdbcDriver");
+    props.setProperty("replica.r2.url", "jdbc:hsqldb:mem:routing_replica2");
+    props.setProperty("replica.r2.poolMaximumActiveConnections", "3");
+    props.setProperty("loadBalance", "least_active");
+    RoutingDataSourceFactory factory = new RoutingDataSourceFactory();
+    factory.setProperties(props);
+    RoutingDataSource ds = (RoutingDataSource) factory.getDataSource();
+    assertEquals("jdbc:hsqldb:mem:routing_primary", ((PooledDataSource) ds.getPrimary()).getUrl());
+    assertEquals(2, ds.getReplicas().size());
+    assertEquals("jdbc:hsqldb:mem:routing_replica1", ((PooledDataSource) ds.getReplicas().get(0)).getUrl());
+    assertEquals(3, ((PooledDataSource) ds.getReplicas().get(1)).getPoolMaximumActiveConnections());
+    assertEquals(LoadBalance.LEAST_ACTIVE, ds.getLoadBalance());
+  }
+
+}
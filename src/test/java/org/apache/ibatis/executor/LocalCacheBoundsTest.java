@@ -0,0 +1,158 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalCacheBoundsTest {
+
+  private Configuration configuration;
+  private MappedStatement ms;
+  private RowCountingExecutor executor;
+
+  @Before
+  public void setUp() {
+    configuration = new Configuration();
+    List<ParameterMapping> parameterMappings = Collections.singletonList(
+        new ParameterMapping.Builder(configuration, "rows", Integer.class).build());
+    ResultMap resultMap = new ResultMap.Builder(configuration, "rows", Integer.class, new ArrayList<ResultMapping>()).build();
+    ms = new MappedStatement.Builder(configuration, "selectRows",
+        new StaticSqlSource(configuration, "select * from rows limit ?", parameterMappings), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).build();
+    executor = new RowCountingExecutor(configuration);
+  }
+
+  @Test
+  public void shouldKeepEveryResultWhenUnbounded() throws Exception {
+    for (int i = 1; i <= 100; i++) {
+      query(i);
+    }
+    for (int i = 1; i <= 100; i++) {
+      query(i);
+    }
+    assertEquals(100, executor.queries);
+  }
+
+  @Test
+  public void shouldDropLeastRecentlyUsedBeyondMaxEntries() throws Exception {
+    configuration.setLocalCacheMaxEntries(2);
+    query(1);
+    query(2);
+    query(1);
+    query(3);
+    assertEquals(3, executor.queries);
+    query(1);
+    query(3);
+    assertEquals(3, executor.queries);
+    query(2);
+    assertEquals(4, executor.queries);
+  }
+
+  @Test
+  public void shouldDropLeastRecentlyUsedBeyondMaxRows() throws Exception {
+    configuration.setLocalCacheMaxRows(10);
+    query(4);
+    query(5);
+    query(4);
+    query(3);
+    assertEquals(3, executor.queries);
+    query(4);
+    query(3);
+    assertEquals(3, executor.queries);
+    query(5);
+    assertEquals(4, executor.queries);
+  }
+
+  @Test
+  public void shouldNotKeepResultsLargerThanMaxResultRows() throws Exception {
+    configuration.setLocalCacheMaxResultRows(5);
+    query(5);
+    query(6);
+    query(5);
+    query(6);
+    assertEquals(3, executor.queries);
+  }
+
+  @Test
+  public void shouldForgetDroppedRowsOnClear() throws Exception {
+    configuration.setLocalCacheMaxRows(10);
+    query(8);
+    executor.clearLocalCache();
+    query(9);
+    query(9);
+    assertEquals(2, executor.queries);
+  }
+
+  private List<Object> query(int rows) throws SQLException {
+    List<Object> list = executor.query(ms, rows, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(rows, list.size());
+    return list;
+  }
+
+  private static class RowCountingExecutor extends BaseExecutor {
+
+    private int queries;
+
+    RowCountingExecutor(Configuration configuration) {
+      super(configuration, null);
+    }
+
+    @Override
+    protected <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) {
+      queries++;
+      List<E> list = new ArrayList<E>();
+      for (int i = 0; i < (Integer) parameter; i++) {
+        list.add(null);
+      }
+      return list;
+    }
+
+    @Override
+    protected int doUpdate(MappedStatement ms, Object parameter) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected List<BatchResult> doFlushStatements(boolean isRollback) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
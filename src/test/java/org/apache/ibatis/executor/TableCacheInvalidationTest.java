@@ -0,0 +1,177 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TableCacheInvalidationTest {
+
+  private Configuration configuration;
+  private MappedStatement selectBlogs;
+  private MappedStatement selectTitles;
+  private MappedStatement updateBlog;
+  private int queries;
+
+  @Before
+  public void setUp() {
+    configuration = new Configuration();
+    configuration.setTableCacheInvalidation(true);
+    selectBlogs = select("blogs.selectBlogs", "select * from blog");
+    selectTitles = select("titles.selectTitles", "select title from blog");
+    updateBlog = new MappedStatement.Builder(configuration, "authors.updateBlog",
+        new StaticSqlSource(configuration, "update blog set title = 'title'"), SqlCommandType.UPDATE)
+        .cache(new CacheBuilder("authors").build()).flushCacheRequired(true).build();
+  }
+
+  @Test
+  public void shouldBypassTheCacheAfterAnUncommittedWrite() throws Exception {
+    Executor executor = newExecutor();
+    executor.query(selectBlogs, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    executor.commit(true);
+    assertEquals(1, queries);
+
+    Executor writer = newExecutor();
+    writer.update(updateBlog, null);
+    writer.query(selectBlogs, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(2, queries);
+
+    Executor reader = newExecutor();
+    reader.query(selectBlogs, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(2, queries);
+  }
+
+  @Test
+  public void shouldInvalidateOtherNamespacesReadingTheTableOnCommit() throws Exception {
+    Executor executor = newExecutor();
+    executor.query(selectBlogs, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    executor.query(selectTitles, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    executor.commit(true);
+    assertEquals(2, queries);
+
+    Executor writer = newExecutor();
+    writer.update(updateBlog, null);
+    writer.commit(true);
+
+    Executor reader = newExecutor();
+    reader.query(selectTitles, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(3, queries);
+    reader.query(selectBlogs, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(4, queries);
+  }
+
+  @Test
+  public void shouldNotInvalidateOnRollback() throws Exception {
+    Executor executor = newExecutor();
+    executor.query(selectTitles, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    executor.commit(true);
+    assertEquals(1, queries);
+
+    Executor writer = newExecutor();
+    writer.update(updateBlog, null);
+    writer.rollback(true);
+
+    Executor reader = newExecutor();
+    reader.query(selectTitles, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(1, queries);
+  }
+
+  private MappedStatement select(String id, String sql) {
+    ResultMap resultMap = new ResultMap.Builder(configuration, id, String.class, new ArrayList<ResultMapping>()).build();
+    return new MappedStatement.Builder(configuration, id,
+        new StaticSqlSource(configuration, sql, new ArrayList<ParameterMapping>()), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap))
+        .cache(new CacheBuilder(id.substring(0, id.indexOf('.'))).build()).useCache(true).build();
+  }
+
+  private Executor newExecutor() {
+    return new CachingExecutor(new CountingExecutor(configuration));
+  }
+
+  private class CountingExecutor extends BaseExecutor {
+
+    CountingExecutor(Configuration configuration) {
+      super(configuration, new NoTransaction());
+    }
+
+    @Override
+    protected <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) {
+      queries++;
+      return new ArrayList<E>();
+    }
+
+    @Override
+    protected int doUpdate(MappedStatement ms, Object parameter) {
+      return 1;
+    }
+
+    @Override
+    protected List<BatchResult> doFlushStatements(boolean isRollback) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class NoTransaction implements Transaction {
+
+    @Override
+    public Connection getConnection() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void rollback() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Integer getTimeout() {
+      return null;
+    }
+  }
+
+}
@@ -17,6 +17,7 @@ package org.apache.ibatis.jdbc;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -24,10 +25,22 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.PoolHousekeeping;
+import org.apache.ibatis.datasource.pooled.PoolMetricsListener;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -75,6 +88,427 @@ public class PooledDataSourceTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldShareSmallPoolBetweenManyThreads() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(2);
+      ds.setPoolMaximumIdleConnections(2);
+      final int threads = 8;
+      final int iterations = 50;
+      final AtomicInteger inUse = new AtomicInteger();
+      final AtomicInteger errors = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int i = 0; i < threads; i++) {
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < iterations; j++) {
+                Connection c = ds.getConnection();
+                if (inUse.incrementAndGet() > 2) {
+                  errors.incrementAndGet();
+                }
+                c.getAutoCommit();
+                inUse.decrementAndGet();
+                c.close();
+              }
+            } catch (SQLException e) {
+              errors.incrementAndGet();
+            } finally {
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      assertEquals(0, errors.get());
+      assertEquals(threads * iterations, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      // a second connection is only opened if two threads happened to overlap
+      int idle = ds.getPoolState().getIdleConnectionCount();
+      assertTrue(idle >= 1 && idle <= 2);
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldNotReuseConnectionThroughStaleReference() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      Connection first = ds.getConnection();
+      first.close();
+      Connection second = ds.getConnection();
+      assertEquals(PooledDataSource.unwrapConnection(first), PooledDataSource.unwrapConnection(second));
+      // closing the stale reference again must not return the connection held by second
+      first.close();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      try {
+        first.getAutoCommit();
+        fail("Should have failed on a stale connection reference.");
+      } catch (SQLException e) {
+        // expected
+      }
+      second.getAutoCommit();
+      second.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReleaseReservedSlotWhenDriverThrowsRuntimeException() throws Exception {
+    final AtomicInteger failures = new AtomicInteger(2);
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    UnpooledDataSource unpooled = new UnpooledDataSource(props.getProperty("driver"), props.getProperty("url"),
+        props.getProperty("username"), props.getProperty("password")) {
+      @Override
+      public Connection getConnection() throws SQLException {
+        if (failures.getAndDecrement() > 0) {
+          throw new IllegalStateException("Driver failure");
+        }
+        return super.getConnection();
+      }
+    };
+    PooledDataSource ds = new PooledDataSource(unpooled);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      for (int i = 0; i < 2; i++) {
+        try {
+          ds.getConnection();
+          fail("Should have failed to open a connection.");
+        } catch (IllegalStateException e) {
+          // expected
+        }
+      }
+      // the slot reserved by the failed attempts is free again
+      Connection c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldKeepMinimumIdleConnectionsAndRetireOldOnes() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(3);
+      ds.setPoolMinimumIdleConnections(2);
+      ds.setPoolHousekeepingInterval(60000);
+      Connection c = ds.getConnection();
+      PoolHousekeeping.runNow(ds);
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+      assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+
+      ds.setPoolMaximumLifetime(200);
+      c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.close();
+      Thread.sleep(250);
+      PoolHousekeeping.runNow(ds);
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      c = ds.getConnection();
+      assertNotSame(realConnection, PooledDataSource.unwrapConnection(c));
+      assertTrue(realConnection.isClosed());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseConnectionsIdleForTooLong() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumIdleConnections(3);
+      ds.setPoolIdleTimeout(50);
+      ds.setPoolHousekeepingInterval(60000);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+      Thread.sleep(100);
+      PoolHousekeeping.runNow(ds);
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldWarmUpPoolWhenEnvironmentIsBuilt() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumIdleConnections(4);
+      ds.setPoolWarmupConnections(6);
+      ds.setPoolWarmupThreads(2);
+      new Environment.Builder("development")
+          .transactionFactory(new JdbcTransactionFactory())
+          .dataSource(ds)
+          .build();
+      assertEquals(4, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      Connection c = ds.getConnection();
+      assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldPingWithIsValidInsteadOfQuery() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingQuery("SELECT * FROM NO_SUCH_TABLE");
+      ds.setPoolPingUseIsValid(true);
+      for (int i = 0; i < 3; i++) {
+        Connection c = ds.getConnection();
+        Thread.sleep(2);
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldPingIdleConnectionsInBackground() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingQuery("SELECT * FROM NO_SUCH_TABLE");
+      ds.setPoolPingInBackground(true);
+      ds.setPoolHousekeepingInterval(60000);
+      Connection c = ds.getConnection();
+      Thread.sleep(2);
+      c.close();
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      Thread.sleep(2);
+      PoolHousekeeping.runNow(ds);
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRecordLatenciesAndNotifyListeners() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      final AtomicInteger requested = new AtomicInteger();
+      final AtomicInteger waited = new AtomicInteger();
+      final AtomicInteger returned = new AtomicInteger();
+      final AtomicInteger created = new AtomicInteger();
+      final AtomicInteger validated = new AtomicInteger();
+      ds.addMetricsListener(new PoolMetricsListener() {
+        @Override
+        public void connectionRequested(long nanos) {
+          requested.incrementAndGet();
+        }
+
+        @Override
+        public void connectionWaited(long nanos) {
+          waited.incrementAndGet();
+        }
+
+        @Override
+        public void connectionReturned(long nanos) {
+          returned.incrementAndGet();
+        }
+
+        @Override
+        public void connectionCreated(long nanos) {
+          created.incrementAndGet();
+        }
+
+        @Override
+        public void connectionValidated(long nanos, boolean valid) {
+          validated.incrementAndGet();
+        }
+      });
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingUseIsValid(true);
+      for (int i = 0; i < 3; i++) {
+        Connection c = ds.getConnection();
+        Thread.sleep(2);
+        c.close();
+      }
+      assertEquals(3, requested.get());
+      assertEquals(0, waited.get());
+      assertEquals(3, returned.get());
+      assertEquals(1, created.get());
+      assertTrue(validated.get() >= 2);
+      assertEquals(3, ds.getPoolState().getRequestTimes().getCount());
+      assertEquals(3, ds.getPoolState().getCheckoutTimes().getCount());
+      assertEquals(1, ds.getPoolState().getCreationTimes().getCount());
+      assertTrue(ds.getPoolState().getCheckoutTimes().getMax() >= 2.0);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRecordOnlyTheTimeSpentWaiting() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(1000);
+      final Connection held = ds.getConnection();
+      assertEquals(0, ds.getPoolState().getWaitTimes().getCount());
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(50);
+            held.close();
+          } catch (Exception e) {
+            // the waiting request times out and fails the test
+          }
+        }
+      }.start();
+      ds.getConnection().close();
+      assertEquals(2, ds.getPoolState().getRequestTimes().getCount());
+      assertEquals(1, ds.getPoolState().getWaitTimes().getCount());
+      assertTrue(ds.getPoolState().getWaitTimes().getMax() >= 40.0);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRegisterPoolStateWithJmx() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.ibatis.datasource.pooled:type=PoolState,name=\"jpetstore\"");
+    try {
+      ds.setPoolName("jpetstore");
+      ds.setPoolJmxEnabled(true);
+      ds.getConnection().close();
+      assertEquals(1L, server.getAttribute(name, "RequestCount"));
+      assertEquals(1, server.getAttribute(name, "IdleConnectionCount"));
+      CompositeData requestTimes = (CompositeData) server.getAttribute(name, "RequestTimes");
+      assertEquals(1L, requestTimes.get("count"));
+    } finally {
+      ds.setPoolJmxEnabled(false);
+      ds.forceCloseAll();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void shouldReportLeakedConnectionOnce() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLeakDetectionThreshold(50);
+      ds.setPoolLeakDetectionSampling(1);
+      ds.setPoolHousekeepingInterval(60000);
+      Connection c = ds.getConnection();
+      Thread.sleep(100);
+      PoolHousekeeping.runNow(ds);
+      assertEquals(1, ds.getPoolState().getLeakedConnectionCount());
+      PoolHousekeeping.runNow(ds);
+      assertEquals(1, ds.getPoolState().getLeakedConnectionCount());
+      c.close();
+      c = ds.getConnection();
+      c.close();
+      PoolHousekeeping.runNow(ds);
+      assertEquals(1, ds.getPoolState().getLeakedConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReusePreparedStatementsAcrossCheckouts() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      runScript(ds, JPETSTORE_DDL);
+      ds.setPoolPreparedStatementCacheSize(1);
+      Connection c = ds.getConnection();
+      PreparedStatement st = c.prepareStatement("SELECT * FROM PRODUCT WHERE PRODUCTID = ?");
+      PreparedStatement concurrent = c.prepareStatement("SELECT * FROM PRODUCT WHERE PRODUCTID = ?");
+      assertNotSame(unwrapStatement(st), unwrapStatement(concurrent));
+      PreparedStatement first = unwrapStatement(st);
+      st.setString(1, "FI-SW-01");
+      st.executeQuery().close();
+      st.close();
+      concurrent.close();
+      assertTrue(st.isClosed());
+      assertFalse(first.isClosed());
+      c.close();
+
+      c = ds.getConnection();
+      st = c.prepareStatement("SELECT * FROM PRODUCT WHERE PRODUCTID = ?");
+      assertSame(first, unwrapStatement(st));
+      st.close();
+      PreparedStatement other = c.prepareStatement("SELECT * FROM CATEGORY");
+      PreparedStatement cached = unwrapStatement(other);
+      other.close();
+      // evicted, the cache holds one statement
+      assertTrue(first.isClosed());
+      c.close();
+
+      ds.forceCloseAll();
+      assertTrue(cached.isClosed());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRestoreStatementSettingsForTheNextBorrower() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      runScript(ds, JPETSTORE_DDL);
+      ds.setPoolPreparedStatementCacheSize(1);
+      Connection c = ds.getConnection();
+      PreparedStatement st = c.prepareStatement("SELECT * FROM PRODUCT");
+      PreparedStatement cached = unwrapStatement(st);
+      int fetchSize = st.getFetchSize();
+      st.setMaxRows(1);
+      st.setQueryTimeout(5);
+      st.setFetchSize(fetchSize + 10);
+      ResultSet rs = st.executeQuery();
+      st.close();
+      assertTrue(rs.isClosed());
+      c.close();
+
+      c = ds.getConnection();
+      st = c.prepareStatement("SELECT * FROM PRODUCT");
+      assertSame(cached, unwrapStatement(st));
+      assertEquals(0, st.getMaxRows());
+      assertEquals(0, st.getQueryTimeout());
+      assertEquals(fetchSize, st.getFetchSize());
+      st.close();
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private PreparedStatement unwrapStatement(PreparedStatement statement) throws SQLException {
+    return statement.unwrap(PreparedStatement.class);
+  }
+
   @Test
   public void shouldNotFailCallingToStringOverAnInvalidConnection() throws Exception {
     PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
@@ -90,6 +524,58 @@ public class PooledDataSourceTest extends BaseDataTest {
     JDBCConnection realConnection = (JDBCConnection) PooledDataSource.unwrapConnection(c);
   }
 
+  @Test
+  public void shouldSkipDriverCallsWhenConnectionStateIsKnown() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.setAutoCommit(false);
+      c.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+      assertFalse(realConnection.getAutoCommit());
+      assertEquals(Connection.TRANSACTION_SERIALIZABLE, realConnection.getTransactionIsolation());
+
+      // changed behind the back of the pool, so only calls that reach the driver see it
+      realConnection.setAutoCommit(true);
+      realConnection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+      assertFalse(c.getAutoCommit());
+      assertEquals(Connection.TRANSACTION_SERIALIZABLE, c.getTransactionIsolation());
+      c.setAutoCommit(false);
+      c.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+      assertTrue(realConnection.getAutoCommit());
+      assertEquals(Connection.TRANSACTION_READ_COMMITTED, realConnection.getTransactionIsolation());
+
+      c.setAutoCommit(true);
+      c.close();
+      // the state is kept for the next checkout of the same physical connection
+      c = ds.getConnection();
+      assertSame(realConnection, PooledDataSource.unwrapConnection(c));
+      assertTrue(c.getAutoCommit());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldDelegateJdbc41MethodsToTheRealConnection() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      assertEquals(realConnection.getSchema(), c.getSchema());
+      c.close();
+      try {
+        c.getSchema();
+        fail("a closed connection should not be usable");
+      } catch (SQLException e) {
+        // expected
+      }
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
   @Ignore("See the comments")
   @Test
   public void shouldReconnectWhenServerKilledLeakedConnection() throws Exception {
@@ -18,6 +18,10 @@ package org.apache.ibatis.mapping;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.hamcrest.core.Is;
 import org.junit.Assert;
@@ -47,6 +51,29 @@ public class CacheBuilderTest {
     new CacheBuilder("test").implementation(InitializingFailureCache.class).build();
   }
 
+  @Test
+  public void testSynchronizedUnlessThreadSafe() throws Exception {
+    Cache cache = new CacheBuilder("test").addDecorator(LruCache.class).build();
+    Assert.assertEquals(SynchronizedCache.class, cache.getClass());
+
+    cache = new CacheBuilder("test").addDecorator(ConcurrentLruCache.class).size(10).build();
+    Assert.assertEquals(LoggingCache.class, cache.getClass());
+    ConcurrentLruCache concurrentCache = unwrap(cache);
+    for (int i = 0; i < 20; i++) {
+      cache.putObject(i, i);
+    }
+    Assert.assertThat(concurrentCache.getSize(), Is.is(10));
+
+    cache = new CacheBuilder("test").addDecorator(ConcurrentLruCache.class).readWrite(true).build();
+    Assert.assertEquals(LoggingCache.class, cache.getClass());
+
+    cache = new CacheBuilder("test").addDecorator(ConcurrentLruCache.class).clearInterval(60000L).build();
+    Assert.assertEquals(SynchronizedCache.class, cache.getClass());
+
+    cache = new CacheBuilder("test").addDecorator(ConcurrentLruCache.class).expireAfterWrite(60000L).build();
+    Assert.assertEquals(SynchronizedCache.class, cache.getClass());
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T unwrap(Cache cache){
     Field field;
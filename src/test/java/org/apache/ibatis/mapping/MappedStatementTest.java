@@ -0,0 +1,103 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class MappedStatementTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldHaveNoNestedQueriesWithPlainResultMap() {
+    ResultMap plain = resultMap("plain", column("name"));
+    assertFalse(statement(plain).hasNestedQueries());
+  }
+
+  @Test
+  public void shouldFindNestedQueryOfResultMap() {
+    ResultMap author = resultMap("author", column("name"), nestedQuery("blogs"));
+    assertTrue(statement(author).hasNestedQueries());
+  }
+
+  @Test
+  public void shouldFindNestedQueryOfNestedResultMap() {
+    resultMap("author", column("name"), nestedQuery("blogs"));
+    ResultMap blog = resultMap("blog", column("title"), nestedResultMap("author"));
+    assertTrue(statement(blog).hasNestedQueries());
+  }
+
+  @Test
+  public void shouldFindNestedQueryOfDiscriminatedResultMap() {
+    resultMap("author", column("name"), nestedQuery("blogs"));
+    Map<String, String> cases = new HashMap<String, String>();
+    cases.put("1", "author");
+    Discriminator discriminator = new Discriminator.Builder(configuration, column("type"), cases).build();
+    ResultMap person = new ResultMap.Builder(configuration, "person", Object.class, Collections.singletonList(column("name")))
+        .discriminator(discriminator).build();
+    configuration.addResultMap(person);
+    assertTrue(statement(person).hasNestedQueries());
+  }
+
+  @Test
+  public void shouldStopAtCircularResultMaps() {
+    resultMap("post", column("title"), nestedResultMap("comment"));
+    ResultMap comment = resultMap("comment", column("text"), nestedResultMap("post"));
+    assertFalse(statement(comment).hasNestedQueries());
+  }
+
+  @Test
+  public void shouldAssumeNestedQueriesOfUnknownResultMap() {
+    ResultMap blog = resultMap("blog", column("title"), nestedResultMap("missing"));
+    assertTrue(statement(blog).hasNestedQueries());
+  }
+
+  private MappedStatement statement(ResultMap resultMap) {
+    return new MappedStatement.Builder(configuration, "select", new StaticSqlSource(configuration, "select 1"), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).build();
+  }
+
+  private ResultMap resultMap(String id, ResultMapping... mappings) {
+    List<ResultMapping> resultMappings = new ArrayList<ResultMapping>();
+    Collections.addAll(resultMappings, mappings);
+    ResultMap resultMap = new ResultMap.Builder(configuration, id, Object.class, resultMappings).build();
+    configuration.addResultMap(resultMap);
+    return resultMap;
+  }
+
+  private ResultMapping column(String name) {
+    return new ResultMapping.Builder(configuration, name, name, String.class).build();
+  }
+
+  private ResultMapping nestedQuery(String id) {
+    return new ResultMapping.Builder(configuration, id, "id", Object.class).nestedQueryId(id).build();
+  }
+
+  private ResultMapping nestedResultMap(String id) {
+    return new ResultMapping.Builder(configuration, id).nestedResultMapId(id).build();
+  }
+
+}